@@ -0,0 +1,48 @@
+package com.google;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The difference between two versions of the video catalog: the videos that were added,
+ * the ids that were removed and the new versions of videos whose title or tags changed.
+ */
+final class CatalogDelta {
+
+  private final Map<String, Video> added;
+  private final Set<String> removed;
+  private final Map<String, Video> changed;
+
+  CatalogDelta(Map<String, Video> added, Set<String> removed, Map<String, Video> changed) {
+    this.added = Collections.unmodifiableMap(added);
+    this.removed = Collections.unmodifiableSet(removed);
+    this.changed = Collections.unmodifiableMap(changed);
+  }
+
+  /** Returns the videos that are new in the catalog, by id. */
+  Map<String, Video> getAdded() {
+    return added;
+  }
+
+  /** Returns the ids of the videos that are no longer in the catalog. */
+  Set<String> getRemoved() {
+    return removed;
+  }
+
+  /** Returns the new versions of the videos whose title or tags changed, by id. */
+  Map<String, Video> getChanged() {
+    return changed;
+  }
+
+  boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d added, %d removed, %d changed",
+        added.size(), removed.size(), changed.size());
+  }
+
+}
@@ -0,0 +1,277 @@
+package com.google;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads a video catalog in the "title | video_id | tag, tag" text format.
+ *
+ * The catalog is memory-mapped and scanned over its raw bytes for the line, field and
+ * tag delimiters. No regex or intermediate line strings are created: only the final
+ * title, id and tag strings are decoded, from a reused scratch buffer.
+ */
+final class CatalogLoader {
+
+  /** Largest region mapped at once; a single mapping cannot exceed 2GB. */
+  private static final long MAX_WINDOW = Integer.MAX_VALUE - 8;
+
+  /** Smallest byte range handed to a single parallel parse task. */
+  private static final int MIN_RANGE = 1 << 20;
+
+  private static final byte LINE = '\n';
+  private static final byte FIELD = '|';
+  private static final byte TAG = ',';
+
+  private byte[] scratch = new byte[256];
+  private int[] tagScratch = new int[16];
+
+  private CatalogLoader() {
+  }
+
+  /**
+   * Parses every video of the catalog file at the given path.
+   */
+  static void load(Path path, VideoSink sink) throws IOException {
+    CatalogLoader loader = new CatalogLoader();
+    forEachWindow(path, (window, end) -> loader.parse(window, 0, end, sink));
+  }
+
+  /**
+   * Parses every video of the catalog file at the given path on the given pool.
+   *
+   * Each mapped window is split into byte ranges aligned on line boundaries which are
+   * parsed concurrently. The parsed videos are handed to the sink on the calling thread
+   * in file order, so duplicate ids resolve exactly as with {@link #load(Path, VideoSink)}.
+   */
+  static void load(Path path, ForkJoinPool pool, VideoSink sink) throws IOException {
+    forEachWindow(path, (window, end) -> {
+      List<RangeTask> tasks = split(window, end, pool.getParallelism() * 4);
+      pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+      for (RangeTask task : tasks) {
+        task.join().replay(sink);
+      }
+    });
+  }
+
+  /**
+   * Maps the file window by window and hands each window, cut at its last complete line,
+   * to the consumer.
+   */
+  private static void forEachWindow(Path path, WindowConsumer consumer) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = 0;
+
+      while (position < size) {
+        long length = Math.min(MAX_WINDOW, size - position);
+        ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        int end = (int) length;
+
+        // Only parse up to the last complete line unless this is the final window
+        if (position + length < size) {
+          end = lastLineEnd(window, end);
+          if (end <= 0) {
+            throw new IOException("Catalog line longer than " + MAX_WINDOW + " bytes");
+          }
+        }
+
+        consumer.accept(window, end);
+        position += end;
+      }
+    }
+  }
+
+  /**
+   * Splits [0, end) into at most the given number of ranges, each starting at a line start.
+   */
+  private static List<RangeTask> split(ByteBuffer buffer, int end, int ranges) {
+    List<RangeTask> tasks = new ArrayList<>();
+    int rangeSize = Math.max(MIN_RANGE, end / Math.max(1, ranges) + 1);
+    int from = 0;
+
+    while (from < end) {
+      int to = rangeSize >= end - from ? end : indexOf(buffer, LINE, from + rangeSize, end);
+      to = Math.min(to + 1, end);
+      tasks.add(new RangeTask(buffer, from, to));
+      from = to;
+    }
+
+    return tasks;
+  }
+
+  /**
+   * Parses every video of a catalog read from a stream, e.g. a resource packed in a jar.
+   */
+  static void load(InputStream stream, VideoSink sink) throws IOException {
+    byte[] bytes = stream.readAllBytes();
+    new CatalogLoader().parse(ByteBuffer.wrap(bytes), 0, bytes.length, sink);
+  }
+
+  /**
+   * Parses the lines in the byte range [from, to) of the buffer. The range must start at
+   * the beginning of a line; a line that is not terminated by '\n' ends at {@code to}.
+   */
+  void parse(ByteBuffer buffer, int from, int to, VideoSink sink) {
+    int lineStart = from;
+
+    while (lineStart < to) {
+      int lineEnd = indexOf(buffer, LINE, lineStart, to);
+      parseLine(buffer, lineStart, lineEnd, sink);
+      lineStart = lineEnd + 1;
+    }
+  }
+
+  /**
+   * Parses a single line. Blank or malformed lines (without a video id field) are skipped.
+   */
+  private void parseLine(ByteBuffer buffer, int start, int end, VideoSink sink) {
+    int titleEnd = indexOf(buffer, FIELD, start, end);
+    if (titleEnd == end) {
+      return;
+    }
+
+    int idEnd = indexOf(buffer, FIELD, titleEnd + 1, end);
+    String title = decode(buffer, start, titleEnd);
+    String id = decode(buffer, titleEnd + 1, idEnd);
+
+    int tagCount = 0;
+    if (idEnd < end) {
+      int tagsEnd = indexOf(buffer, FIELD, idEnd + 1, end);
+      int tagStart = idEnd + 1;
+
+      while (tagStart <= tagsEnd) {
+        int tagEnd = indexOf(buffer, TAG, tagStart, tagsEnd);
+        String tag = decode(buffer, tagStart, tagEnd);
+        if (!tag.isEmpty()) {
+          if (tagCount == tagScratch.length) {
+            tagScratch = Arrays.copyOf(tagScratch, tagCount * 2);
+          }
+          tagScratch[tagCount++] = TagDictionary.global().intern(tag);
+        }
+        tagStart = tagEnd + 1;
+      }
+    }
+
+    sink.accept(title, id, Arrays.copyOf(tagScratch, tagCount));
+  }
+
+  /**
+   * Decodes the UTF-8 bytes in [start, end) with surrounding whitespace stripped.
+   */
+  private String decode(ByteBuffer buffer, int start, int end) {
+    while (start < end && isBlank(buffer.get(start))) {
+      start++;
+    }
+    while (end > start && isBlank(buffer.get(end - 1))) {
+      end--;
+    }
+
+    int length = end - start;
+    if (length == 0) {
+      return "";
+    }
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+    for (int i = 0; i < length; i++) {
+      scratch[i] = buffer.get(start + i);
+    }
+
+    // Catches the non-ASCII whitespace String.strip() would also remove; returns the
+    // same instance when there is nothing left to strip
+    return new String(scratch, 0, length, StandardCharsets.UTF_8).strip();
+  }
+
+  /**
+   * Returns the index just past the last '\n' in [0, end), or 0 if there is none.
+   */
+  private static int lastLineEnd(ByteBuffer buffer, int end) {
+    for (int i = end - 1; i >= 0; i--) {
+      if (buffer.get(i) == LINE) {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the index of the first occurrence of the byte in [from, to), or {@code to}.
+   */
+  private static int indexOf(ByteBuffer buffer, byte value, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (buffer.get(i) == value) {
+        return i;
+      }
+    }
+    return to;
+  }
+
+  /** Receives a mapped window of the catalog and the end of its last complete line. */
+  private interface WindowConsumer {
+    void accept(ByteBuffer window, int end) throws IOException;
+  }
+
+  /** Parses one line-aligned byte range of a window, keeping the videos in file order. */
+  private static final class RangeTask extends RecursiveTask<ParsedRange> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ByteBuffer buffer;
+    private final int from;
+    private final int to;
+
+    RangeTask(ByteBuffer buffer, int from, int to) {
+      this.buffer = buffer;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected ParsedRange compute() {
+      ParsedRange parsed = new ParsedRange();
+      new CatalogLoader().parse(buffer, from, to, parsed);
+      return parsed;
+    }
+
+  }
+
+  /** The fields of the videos parsed from one range, in file order. */
+  private static final class ParsedRange implements VideoSink {
+
+    private final List<String> titles = new ArrayList<>();
+    private final List<String> videoIds = new ArrayList<>();
+    private final List<int[]> tagIds = new ArrayList<>();
+
+    @Override
+    public void accept(String title, String videoId, int[] tagIds) {
+      this.titles.add(title);
+      this.videoIds.add(videoId);
+      this.tagIds.add(tagIds);
+    }
+
+    void replay(VideoSink sink) {
+      for (int i = 0; i < titles.size(); i++) {
+        sink.accept(titles.get(i), videoIds.get(i), tagIds.get(i));
+      }
+    }
+
+  }
+
+  private static boolean isBlank(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == 0x0B || b == 0x0C
+        || (b >= 0x1C && b <= 0x1F);
+  }
+
+}
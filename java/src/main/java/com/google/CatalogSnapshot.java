@@ -0,0 +1,239 @@
+package com.google;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes a compact binary snapshot of a video catalog, so that warm restarts
+ * skip text parsing entirely.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   int magic, int version, int tagCount, int videoCount
+ *   tagCount x  (int length, UTF-8 tag)
+ *   videoCount x (int length, UTF-8 title, int length, UTF-8 id, int tagCount, int tag...)
+ *   long CRC32 of all preceding bytes
+ * </pre>
+ * Tags are stored once in the dictionary and referenced from videos by ordinal.
+ */
+final class CatalogSnapshot {
+
+  private static final int MAGIC = 0x59545653; // "YTVS"
+  private static final int VERSION = 1;
+
+  private static final int HEADER = 16;
+  private static final int TRAILER = 8;
+
+  /** Largest region mapped at once; a single mapping cannot exceed 2GB. */
+  private static final long MAX_WINDOW = Integer.MAX_VALUE - 8;
+
+  private final FileChannel channel;
+  private final long size;
+  private ByteBuffer window;
+  private long windowStart;
+  private byte[] scratch = new byte[256];
+
+  private CatalogSnapshot(FileChannel channel) throws IOException {
+    this.channel = channel;
+    this.size = channel.size();
+  }
+
+  /**
+   * Returns true if the snapshot exists and is not older than the catalog it was built from.
+   */
+  static boolean isFresh(Path snapshot, Path catalog) {
+    try {
+      return Files.isRegularFile(snapshot)
+          && Files.getLastModifiedTime(snapshot).compareTo(Files.getLastModifiedTime(catalog)) >= 0;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Writes the videos of the catalog to a snapshot at the given path. The snapshot is written to a
+   * temporary file first and moved into place, so readers never see a partial file.
+   */
+  static void write(Path path, VideoCatalog catalog) throws IOException {
+    VideoStore store = catalog.getStore();
+
+    // Only the tags used by these videos go into the snapshot dictionary
+    TagDictionary dictionary = TagDictionary.global();
+    int[] tagOrdinals = new int[dictionary.size()];
+    Arrays.fill(tagOrdinals, -1);
+    List<String> tags = new ArrayList<>();
+    for (int ordinal = 0; ordinal < store.size(); ordinal++) {
+      if (store.getVideoId(ordinal) == null) {
+        continue;
+      }
+      for (int tagId : store.getTagIds(ordinal)) {
+        if (tagOrdinals[tagId] < 0) {
+          tagOrdinals[tagId] = tags.size();
+          tags.add(dictionary.tag(tagId));
+        }
+      }
+    }
+
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    CRC32 crc = new CRC32();
+
+    try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16), crc))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(tags.size());
+      out.writeInt(catalog.size());
+
+      for (String tag : tags) {
+        writeString(out, tag);
+      }
+
+      for (int ordinal = 0; ordinal < store.size(); ordinal++) {
+        String videoId = store.getVideoId(ordinal);
+        if (videoId == null) {
+          continue;
+        }
+        int[] videoTagIds = store.getTagIds(ordinal);
+        writeString(out, store.getTitle(ordinal));
+        writeString(out, videoId);
+        out.writeInt(videoTagIds.length);
+        for (int tagId : videoTagIds) {
+          out.writeInt(tagOrdinals[tagId]);
+        }
+      }
+
+      // The trailer holds the checksum of everything written before it
+      out.writeLong(crc.getValue());
+    }
+
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads every video of the snapshot at the given path, in the order they were written.
+   *
+   * @throws IOException if the snapshot cannot be read, has an unknown version or fails
+   *     its checksum; nothing is handed to the sink in that case
+   */
+  static void read(Path path, VideoSink sink) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      CatalogSnapshot snapshot = new CatalogSnapshot(channel);
+      snapshot.verify();
+      snapshot.decode(sink);
+    }
+  }
+
+  /**
+   * Checks the header and the trailing checksum before anything is decoded.
+   */
+  private void verify() throws IOException {
+    if (size < HEADER + TRAILER) {
+      throw new IOException("Snapshot is truncated");
+    }
+
+    seek(0);
+    if (readInt() != MAGIC) {
+      throw new IOException("Not a catalog snapshot");
+    }
+    int version = readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported snapshot version " + version);
+    }
+
+    CRC32 crc = new CRC32();
+    long end = size - TRAILER;
+    for (long position = 0; position < end; position += MAX_WINDOW) {
+      crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+          Math.min(MAX_WINDOW, end - position)));
+    }
+
+    seek(end);
+    if (readLong() != crc.getValue()) {
+      throw new IOException("Snapshot checksum mismatch");
+    }
+  }
+
+  private void decode(VideoSink sink) throws IOException {
+    seek(8);
+    int tagCount = readInt();
+    int videoCount = readInt();
+
+    // Maps snapshot tag ordinals to ids in the global tag dictionary
+    int[] tagIds = new int[tagCount];
+    for (int i = 0; i < tagCount; i++) {
+      tagIds[i] = TagDictionary.global().intern(readString());
+    }
+
+    for (int i = 0; i < videoCount; i++) {
+      String title = readString();
+      String id = readString();
+      int[] videoTagIds = new int[readInt()];
+      for (int j = 0; j < videoTagIds.length; j++) {
+        videoTagIds[j] = tagIds[readInt()];
+      }
+      sink.accept(title, id, videoTagIds);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Maps a new window starting at the given file position.
+   */
+  private void seek(long position) throws IOException {
+    windowStart = position;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+        Math.min(MAX_WINDOW, size - position));
+  }
+
+  /**
+   * Makes sure the next bytes are inside the current window, remapping it if needed.
+   */
+  private void ensure(int bytes) throws IOException {
+    if (window.remaining() < bytes) {
+      long position = windowStart + window.position();
+      if (size - position < bytes) {
+        throw new IOException("Snapshot is truncated");
+      }
+      seek(position);
+    }
+  }
+
+  private int readInt() throws IOException {
+    ensure(Integer.BYTES);
+    return window.getInt();
+  }
+
+  private long readLong() throws IOException {
+    ensure(Long.BYTES);
+    return window.getLong();
+  }
+
+  private String readString() throws IOException {
+    int length = readInt();
+    ensure(length);
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+    window.get(scratch, 0, length);
+    return new String(scratch, 0, length, StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,126 @@
+package com.google;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the catalog file and runs a callback on a background thread whenever it changes.
+ *
+ * Editors and copy tools often touch a file several times in a row, so events are
+ * debounced: the callback runs once the file has been quiet for a short while, and only
+ * if its modification time or size actually changed.
+ */
+final class CatalogWatcher implements Closeable {
+
+  private static final long QUIET_MILLIS = 200;
+
+  private final Path catalog;
+  private final Runnable onChange;
+  private final WatchService watchService;
+  private final Thread thread;
+
+  private FileTime lastModified;
+  private long lastSize;
+
+  CatalogWatcher(Path catalog, Runnable onChange) throws IOException {
+    this.catalog = catalog.toAbsolutePath();
+    this.onChange = onChange;
+    this.watchService = FileSystems.getDefault().newWatchService();
+    this.catalog.getParent().register(watchService,
+        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    this.lastModified = modifiedTime();
+    this.lastSize = size();
+    this.thread = new Thread(this::watch, "catalog-watcher");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Starts watching; returns this watcher.
+   */
+  CatalogWatcher start() {
+    thread.start();
+    return this;
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    thread.interrupt();
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        boolean touched = concernsCatalog(key);
+
+        // Wait for the burst of events to settle before reading the file
+        while (touched) {
+          WatchKey next = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+          if (next == null) {
+            break;
+          }
+          concernsCatalog(next);
+        }
+
+        if (touched && hasChanged()) {
+          onChange.run();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // The watcher was closed
+    }
+  }
+
+  /**
+   * Drains the key and returns true if one of its events is about the catalog file.
+   */
+  private boolean concernsCatalog(WatchKey key) {
+    boolean touched = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (catalog.getFileName().equals(event.context())) {
+        touched = true;
+      }
+    }
+    key.reset();
+    return touched;
+  }
+
+  private boolean hasChanged() {
+    FileTime modified = modifiedTime();
+    long size = size();
+    if (modified == null || (modified.equals(lastModified) && size == lastSize)) {
+      return false;
+    }
+    lastModified = modified;
+    lastSize = size;
+    return true;
+  }
+
+  private FileTime modifiedTime() {
+    try {
+      return Files.getLastModifiedTime(catalog);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private long size() {
+    try {
+      return Files.size(catalog);
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+}
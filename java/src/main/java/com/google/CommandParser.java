@@ -7,6 +7,9 @@ import java.util.List;
  */
 class CommandParser {
 
+  private static final int DEFAULT_SUGGESTIONS = 5;
+  private static final int DEFAULT_RANKED_RESULTS = 10;
+
   private final VideoPlayer videoPlayer;
 
   CommandParser(VideoPlayer videoPlayer) {
@@ -29,7 +32,14 @@ class CommandParser {
         this.videoPlayer.numberOfVideos();
         break;
       case "SHOW_ALL_VIDEOS":
-        this.videoPlayer.showAllVideos();
+        if (command.size() == 1) {
+          this.videoPlayer.showAllVideos();
+        } else {
+          Paging paging = paging(command, 1);
+          if (paging != null) {
+            this.videoPlayer.showAllVideos(paging);
+          }
+        }
         break;
       case "PLAY":
         try {
@@ -41,6 +51,21 @@ class CommandParser {
       case "PLAY_RANDOM":
         this.videoPlayer.playRandomVideo();
         break;
+      case "SHUFFLE":
+        if (command.size() < 2 || command.get(1).equalsIgnoreCase("ON")) {
+          this.videoPlayer.shuffle(true);
+        } else if (command.get(1).equalsIgnoreCase("OFF")) {
+          this.videoPlayer.shuffle(false);
+        } else {
+          System.out.println("Please enter SHUFFLE command followed by ON or OFF.");
+        }
+        break;
+      case "PREVIOUS":
+        this.videoPlayer.playPreviousVideo();
+        break;
+      case "HISTORY":
+        this.videoPlayer.showHistory();
+        break;
       case "STOP":
         this.videoPlayer.stopVideo();
         break;
@@ -111,21 +136,90 @@ class CommandParser {
         break;
       case "SEARCH_VIDEOS":
         try {
-          this.videoPlayer.searchVideos(command.get(1));
+          Paging paging = paging(command, 2);
+          if (paging != null) {
+            this.videoPlayer.searchVideos(command.get(1), paging);
+          }
         } catch (ArrayIndexOutOfBoundsException e) {
           System.out.println("Please enter SEARCH_VIDEOS command followed by a " +
               "search term.");
         }
         break;
+      case "SEARCH_VIDEOS_MATCHING":
+        try {
+          Paging paging = paging(command, 2);
+          if (paging != null) {
+            this.videoPlayer.searchVideosMatching(command.get(1), paging);
+          }
+        } catch (ArrayIndexOutOfBoundsException e) {
+          System.out.println("Please enter SEARCH_VIDEOS_MATCHING command followed by a " +
+              "regular expression.");
+        }
+        break;
       case "SEARCH_VIDEOS_WITH_TAG":
         try {
-          this.videoPlayer.searchVideosWithTag(command.get(1));
+          Paging paging = paging(command, 2);
+          if (paging != null) {
+            this.videoPlayer.searchVideosWithTag(command.get(1), paging);
+          }
         } catch (ArrayIndexOutOfBoundsException e) {
           System.out.println(
               "Please enter SEARCH_VIDEOS_WITH_TAG command followed by a " +
                   "video tag.");
         }
         break;
+      case "SEARCH_VIDEOS_WITH_TAGS":
+        if (command.size() < 2) {
+          System.out.println(
+              "Please enter SEARCH_VIDEOS_WITH_TAGS command followed by a " +
+                  "tag expression.");
+        } else {
+          // The expression runs up to the paging options, which are never tags or operators
+          int end = 1;
+          while (end < command.size() && !Paging.isOption(command.get(end))) {
+            end++;
+          }
+          Paging paging = paging(command, end);
+          if (paging != null) {
+            this.videoPlayer.searchVideosWithTags(
+                String.join(" ", command.subList(1, end)), paging);
+          }
+        }
+        break;
+      case "SEARCH_VIDEOS_RANKED":
+        if (command.size() < 2) {
+          System.out.println("Please enter SEARCH_VIDEOS_RANKED command followed by a " +
+              "search term and an optional LIMIT <number of results>.");
+        } else {
+          int end = countStart(command);
+          int count = end < command.size() ? count(command) : DEFAULT_RANKED_RESULTS;
+          this.videoPlayer.searchVideosRanked(String.join(" ", command.subList(1, end)), count);
+        }
+        break;
+      case "SEARCH_VIDEOS_FUZZY":
+        if (command.size() < 2) {
+          System.out.println("Please enter SEARCH_VIDEOS_FUZZY command followed by a " +
+              "search term and an optional maximum number of edits.");
+        } else {
+          // A trailing number is the maximum number of edits per word
+          int end = command.size();
+          int maxEdits = -1;
+          if (end > 2 && command.get(end - 1).matches("[0-2]")) {
+            maxEdits = Integer.parseInt(command.get(--end));
+          }
+          this.videoPlayer.searchVideosFuzzy(String.join(" ", command.subList(1, end)), maxEdits);
+        }
+        break;
+      case "SUGGEST":
+        if (command.size() < 2) {
+          System.out.println("Please enter SUGGEST command followed by a title prefix " +
+              "and an optional LIMIT <number of suggestions>.");
+        } else {
+          int end = countStart(command);
+          int count = end < command.size() ? count(command) : DEFAULT_SUGGESTIONS;
+          this.videoPlayer.suggest(String.join(" ", command.subList(1, end)), count);
+        }
+        break;
       case "FLAG_VIDEO":
         try {
           this.videoPlayer.flagVideo(command.get(1), command.get(2));
@@ -146,6 +240,9 @@ class CommandParser {
               "video_id.");
         }
         break;
+      case "CACHE_STATS":
+        this.videoPlayer.showCacheStats();
+        break;
       case "HELP":
         this.getHelp();
         break;
@@ -157,6 +254,40 @@ class CommandParser {
     }
   }
 
+  /**
+   * Parses the paging options that follow the given index of the command. Prints how to
+   * use them and returns null if they are malformed.
+   */
+  /**
+   * Returns where a trailing {@code LIMIT <n>} starts in the command, or its size if there
+   * is none. The count is asked for by keyword, so that a number ending a search term, as
+   * in "Highlights 2024", stays part of it.
+   */
+  private static int countStart(List<String> command) {
+    int size = command.size();
+    if (size > 3 && command.get(size - 2).equalsIgnoreCase("LIMIT")
+        && command.get(size - 1).matches("\\d{1,9}")) {
+      return size - 2;
+    }
+    return size;
+  }
+
+  /** Returns the count of a trailing {@code LIMIT <n>}, found by {@link #countStart}. */
+  private static int count(List<String> command) {
+    return Integer.parseInt(command.get(command.size() - 1));
+  }
+
+  private static Paging paging(List<String> command, int from) {
+    try {
+      return Paging.parse(command.subList(Math.min(from, command.size()), command.size()));
+    } catch (IllegalArgumentException e) {
+      System.out.printf(
+          "Invalid paging options (%s). Please enter LIMIT <count>, OFFSET <count> "
+              + "or AFTER <cursor>.%n", e.getMessage());
+      return null;
+    }
+  }
+
   /**
    * Displays all available commands to the user.
    */
@@ -164,10 +295,13 @@ class CommandParser {
     String helpText =
         "Available commands:\n"
             + "    NUMBER_OF_VIDEOS - Shows how many videos are in the library.\n"
-            + "    SHOW_ALL_VIDEOS - Lists all videos from the library.\n"
+            + "    SHOW_ALL_VIDEOS [paging] - Lists all videos from the library.\n"
             + "    PLAY <video_id> - Plays specified video.\n"
             + "    PLAY_RANDOM - Plays a random video from the library.\n"
+            + "    SHUFFLE [ON|OFF] - With shuffle on, PLAY_RANDOM plays every video once before any repeats.\n"
             + "    STOP - Stop the current video.\n"
+            + "    PREVIOUS - Plays the video played before the current one again, from where it stopped.\n"
+            + "    HISTORY - Lists the videos played last, most recent first, with how far they were watched.\n"
             + "    PAUSE - Pause the current video.\n"
             + "    CONTINUE - Resume the current paused video.\n"
             + "    SHOW_PLAYING - Displays the title, url and paused status of the video that is currently playing (or paused).\n"
@@ -178,12 +312,21 @@ class CommandParser {
             + "    DELETE_PLAYLIST <playlist_name> - Deletes the playlist.\n"
             + "    SHOW_PLAYLIST <playlist_name> - List all the videos in this playlist.\n"
             + "    SHOW_ALL_PLAYLISTS - Display all the available playlists.\n"
-            + "    SEARCH_VIDEOS <search_term> - Display all the videos whose titles contain the search_term.\n"
-            + "    SEARCH_VIDEOS_WITH_TAG <tag_name> -Display all videos whose tags contains the provided tag.\n"
+            + "    SEARCH_VIDEOS <search_term> [paging] - Display all the videos whose titles contain the search_term.\n"
+            + "    SEARCH_VIDEOS_MATCHING <regex> [paging] - Display all the videos whose titles contain a match of the regular expression.\n"
+            + "    SEARCH_VIDEOS_WITH_TAG <tag_name> [paging] -Display all videos whose tags contains the provided tag.\n"
+            + "    SEARCH_VIDEOS_WITH_TAGS <tag_expression> [paging] - Display all videos whose tags match an expression such as #cat AND #animal NOT #funny.\n"
+            + "    SEARCH_VIDEOS_RANKED <search_term> [LIMIT n] - Display the n (default 10) videos most relevant to the search_term by title and tags.\n"
+            + "    SEARCH_VIDEOS_FUZZY <search_term> [max_edits] - Display the videos whose titles match the search_term despite typos, closest first.\n"
+            + "    SUGGEST <prefix> [LIMIT n] - Display the first n (default 5) videos whose titles start with the prefix.\n"
             + "    FLAG_VIDEO <video_id> <flag_reason> - Mark a video as flagged.\n"
             + "    ALLOW_VIDEO <video_id> - Removes a flag from a video.\n"
+            + "    CACHE_STATS - Displays the hit ratio and evictions of the search result cache.\n"
             + "    HELP - Displays help.\n"
-            + "    EXIT - Terminates the program execution.\n";
+            + "    EXIT - Terminates the program execution.\n"
+            + "\n"
+            + "  [paging] is optional: LIMIT <count> shows at most count results, after skipping\n"
+            + "  OFFSET <count> of them or after AFTER <cursor>, where a cursor is given by the previous page.\n";
     System.out.println(helpText);
   }
 }
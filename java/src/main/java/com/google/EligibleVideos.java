@@ -0,0 +1,130 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The ordinals of the unflagged videos of a library, packed densely in an array so that a
+ * random one is picked with a single index.
+ *
+ * Flagging a video swaps the last ordinal into its slot, and allowing it appends it again,
+ * both in O(1) thanks to the slot of every ordinal kept alongside. Changes go through
+ * {@link #update}, which syncs one ordinal with its current flag, so listener calls that
+ * race with each other still leave the array matching the flags.
+ *
+ * Changes hold the write lock of a stamped lock, but reads never lock: they read
+ * optimistically and retry if a change ran meanwhile, as a seqlock does. Changes only
+ * move a slot or two, so a pick from any number of sessions neither waits nor blocks one.
+ */
+final class EligibleVideos {
+
+  private static final int ABSENT = -1;
+
+  private final StampedLock lock = new StampedLock();
+
+  // The catalog the array was last rebuilt from
+  private VideoCatalog catalog;
+
+  private int[] ordinals = new int[0];
+  private int[] slots = new int[0];
+  private int size;
+
+  /** Refills the array from the catalog, e.g. after it was reloaded. */
+  void rebuild(VideoCatalog catalog, VideoFlags flags) {
+    long stamp = lock.writeLock();
+    try {
+      this.catalog = catalog;
+      int[] ranks = catalog.getRanks();
+      ordinals = new int[Math.max(16, catalog.size())];
+      slots = new int[ranks.length];
+      Arrays.fill(slots, ABSENT);
+      size = 0;
+      for (int ordinal = 0; ordinal < ranks.length; ordinal++) {
+        if (ranks[ordinal] >= 0 && !flags.isFlagged(ordinal)) {
+          add(ordinal);
+        }
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Adds or removes the ordinal so that it is in the array exactly if the catalog it was
+   * rebuilt from has it and it is not flagged.
+   */
+  void update(int ordinal, VideoFlags flags) {
+    long stamp = lock.writeLock();
+    try {
+      if (catalog == null) {
+        return;
+      }
+      int[] ranks = catalog.getRanks();
+      boolean eligible =
+          ordinal < ranks.length && ranks[ordinal] >= 0 && !flags.isFlagged(ordinal);
+      boolean present = ordinal < slots.length && slots[ordinal] != ABSENT;
+      if (eligible && !present) {
+        add(ordinal);
+      } else if (!eligible && present) {
+        remove(ordinal);
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /** Returns the number of unflagged videos. */
+  int size() {
+    while (true) {
+      long stamp = lock.tryOptimisticRead();
+      int result = size;
+      if (lock.validate(stamp)) {
+        return result;
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  /**
+   * Returns an unflagged video picked uniformly at random with the random generator of the
+   * calling thread, or null if there is none.
+   */
+  Video random() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    while (true) {
+      long stamp = lock.tryOptimisticRead();
+      VideoCatalog current = catalog;
+      int[] array = ordinals;
+      int count = size;
+      // The fields may be mismatched mid-change, so the index is checked before use
+      int ordinal = count > 0 && count <= array.length ? array[random.nextInt(count)] : ABSENT;
+      if (lock.validate(stamp)) {
+        return ordinal != ABSENT ? current.getVideo(ordinal) : null;
+      }
+      Thread.onSpinWait();
+    }
+  }
+
+  private void add(int ordinal) {
+    if (size == ordinals.length) {
+      ordinals = Arrays.copyOf(ordinals, Math.max(16, size * 2));
+    }
+    if (ordinal >= slots.length) {
+      int length = slots.length;
+      slots = Arrays.copyOf(slots, Math.max(ordinal + 1, length * 2));
+      Arrays.fill(slots, length, slots.length, ABSENT);
+    }
+    ordinals[size] = ordinal;
+    slots[ordinal] = size++;
+  }
+
+  private void remove(int ordinal) {
+    int slot = slots[ordinal];
+    int last = ordinals[--size];
+    ordinals[slot] = last;
+    slots[last] = slot;
+    slots[ordinal] = ABSENT;
+  }
+
+}
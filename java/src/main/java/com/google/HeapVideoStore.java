@@ -0,0 +1,113 @@
+package com.google;
+
+import java.util.Arrays;
+
+/**
+ * The default video store: one {@link Video} object per ordinal on the Java heap.
+ */
+final class HeapVideoStore implements VideoStore {
+
+  private final Video[] videos;
+  private final VideoFlags flags;
+
+  private HeapVideoStore(Video[] videos, VideoFlags flags) {
+    this.videos = videos;
+    this.flags = flags;
+  }
+
+  static Builder builder(VideoFlags flags) {
+    return new Builder(new Video[64], 0, flags);
+  }
+
+  @Override
+  public int size() {
+    return videos.length;
+  }
+
+  @Override
+  public String getVideoId(int ordinal) {
+    Video video = videos[ordinal];
+    return video != null ? video.getVideoId() : null;
+  }
+
+  @Override
+  public String getTitle(int ordinal) {
+    return videos[ordinal].getTitle();
+  }
+
+  @Override
+  public byte[] getTitleKey(int ordinal) {
+    return videos[ordinal].getTitleKey();
+  }
+
+  @Override
+  public boolean titleKeyContains(int ordinal, byte[] foldedTerm) {
+    return SearchKey.contains(videos[ordinal].getTitleKey(), foldedTerm);
+  }
+
+  @Override
+  public int[] getTagIds(int ordinal) {
+    return videos[ordinal].getTagIds();
+  }
+
+  @Override
+  public int compareByTitle(int a, int b) {
+    int result = videos[a].getTitle().compareTo(videos[b].getTitle());
+    return result != 0 ? result : videos[a].getVideoId().compareTo(videos[b].getVideoId());
+  }
+
+  @Override
+  public int compareTitleKeys(int a, int b) {
+    return SearchKey.compare(videos[a].getTitleKey(), videos[b].getTitleKey());
+  }
+
+  @Override
+  public Video getVideo(int ordinal) {
+    return videos[ordinal];
+  }
+
+  @Override
+  public Builder toBuilder() {
+    // Unchanged videos are shared, so they keep their identity
+    return new Builder(Arrays.copyOf(videos, Math.max(64, videos.length)), videos.length, flags);
+  }
+
+  static final class Builder implements VideoStore.Builder {
+
+    private Video[] videos;
+    private int size;
+    private final VideoFlags flags;
+
+    private Builder(Video[] videos, int size, VideoFlags flags) {
+      this.videos = videos;
+      this.size = size;
+      this.flags = flags;
+    }
+
+    @Override
+    public int add(String title, String videoId, int[] tagIds) {
+      if (size == videos.length) {
+        videos = Arrays.copyOf(videos, size * 2);
+      }
+      videos[size] = new Video(size, title, videoId, tagIds, flags);
+      return size++;
+    }
+
+    @Override
+    public void set(int ordinal, String title, String videoId, int[] tagIds) {
+      videos[ordinal] = new Video(ordinal, title, videoId, tagIds, flags);
+    }
+
+    @Override
+    public void remove(int ordinal) {
+      videos[ordinal] = null;
+    }
+
+    @Override
+    public HeapVideoStore build() {
+      return new HeapVideoStore(Arrays.copyOf(videos, size), flags);
+    }
+
+  }
+
+}
@@ -0,0 +1,386 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * An immutable compressed set of non-negative ints, laid out like a Roaring bitmap.
+ *
+ * Values are grouped by their high 16 bits. Each group is stored in a container holding
+ * its low 16 bits, either as a sorted array when the group is sparse or as a 65536-bit
+ * bitmap once it holds more than {@value #ARRAY_MAX} values, so a set never takes much
+ * more than two bytes per value nor more than one bit per possible value.
+ */
+final class IntBitmap {
+
+  static final IntBitmap EMPTY = new IntBitmap(new char[0], new Container[0], 0);
+
+  private static final int ARRAY_MAX = 4096;
+  private static final int WORDS = 1 << 10;
+
+  private final char[] keys;
+  private final Container[] containers;
+  private final int cardinality;
+
+  private IntBitmap(char[] keys, Container[] containers, int count) {
+    this.keys = keys;
+    this.containers = containers;
+    int cardinality = 0;
+    for (int i = 0; i < count; i++) {
+      cardinality += containers[i].cardinality;
+    }
+    this.cardinality = cardinality;
+  }
+
+  /** Returns a bitmap of the given values, which must be ascending. */
+  static IntBitmap of(int... values) {
+    Builder builder = new Builder();
+    for (int value : values) {
+      builder.add(value);
+    }
+    return builder.build();
+  }
+
+  /** Returns the number of values in the set. */
+  int cardinality() {
+    return cardinality;
+  }
+
+  boolean isEmpty() {
+    return cardinality == 0;
+  }
+
+  boolean contains(int value) {
+    int index = Arrays.binarySearch(keys, (char) (value >>> 16));
+    return index >= 0 && containers[index].contains((char) value);
+  }
+
+  /** Returns the smallest value of the set not smaller than {@code from}, or -1 if none. */
+  int next(int from) {
+    if (from < 0) {
+      from = 0;
+    }
+    int index = Arrays.binarySearch(keys, (char) (from >>> 16));
+    if (index >= 0) {
+      int low = containers[index].next((char) from);
+      if (low >= 0) {
+        return (keys[index] << 16) | low;
+      }
+      index++;
+    } else {
+      index = -index - 1;
+    }
+    // The first value of the next group, if any
+    return index < keys.length ? (keys[index] << 16) | containers[index].next(0) : -1;
+  }
+
+  /** Calls the consumer with every value of the set, in ascending order. */
+  void forEach(IntConsumer consumer) {
+    for (int i = 0; i < keys.length; i++) {
+      containers[i].forEach(keys[i] << 16, consumer);
+    }
+  }
+
+  /** Returns the values of the set in ascending order. */
+  int[] toArray() {
+    int[] values = new int[cardinality];
+    int[] count = new int[1];
+    forEach(value -> values[count[0]++] = value);
+    return values;
+  }
+
+  IntBitmap and(IntBitmap other) {
+    char[] resultKeys = new char[Math.min(keys.length, other.keys.length)];
+    Container[] result = new Container[resultKeys.length];
+    int count = 0;
+
+    for (int i = 0, j = 0; i < keys.length && j < other.keys.length; ) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        Container container = containers[i].and(other.containers[j]);
+        if (container.cardinality > 0) {
+          resultKeys[count] = keys[i];
+          result[count++] = container;
+        }
+        i++;
+        j++;
+      }
+    }
+
+    return new IntBitmap(Arrays.copyOf(resultKeys, count), Arrays.copyOf(result, count), count);
+  }
+
+  IntBitmap or(IntBitmap other) {
+    char[] resultKeys = new char[keys.length + other.keys.length];
+    Container[] result = new Container[resultKeys.length];
+    int count = 0;
+
+    int i = 0;
+    int j = 0;
+    while (i < keys.length || j < other.keys.length) {
+      if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+        resultKeys[count] = keys[i];
+        result[count++] = containers[i++];
+      } else if (i == keys.length || keys[i] > other.keys[j]) {
+        resultKeys[count] = other.keys[j];
+        result[count++] = other.containers[j++];
+      } else {
+        resultKeys[count] = keys[i];
+        result[count++] = containers[i++].or(other.containers[j++]);
+      }
+    }
+
+    return new IntBitmap(Arrays.copyOf(resultKeys, count), Arrays.copyOf(result, count), count);
+  }
+
+  IntBitmap andNot(IntBitmap other) {
+    if (other.isEmpty()) {
+      return this;
+    }
+
+    char[] resultKeys = new char[keys.length];
+    Container[] result = new Container[keys.length];
+    int count = 0;
+
+    for (int i = 0, j = 0; i < keys.length; i++) {
+      while (j < other.keys.length && other.keys[j] < keys[i]) {
+        j++;
+      }
+      Container container = j < other.keys.length && other.keys[j] == keys[i]
+          ? containers[i].andNot(other.containers[j])
+          : containers[i];
+      if (container.cardinality > 0) {
+        resultKeys[count] = keys[i];
+        result[count++] = container;
+      }
+    }
+
+    return new IntBitmap(Arrays.copyOf(resultKeys, count), Arrays.copyOf(result, count), count);
+  }
+
+  /** Builds a bitmap from values added in ascending order. */
+  static final class Builder {
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int count;
+
+    private char[] values = new char[16];
+    private int size;
+
+    /** Adds a value, which must not be smaller than the last one added. */
+    Builder add(int value) {
+      char key = (char) (value >>> 16);
+      if (count == 0 || keys[count - 1] != key) {
+        flush();
+        if (count == keys.length) {
+          keys = Arrays.copyOf(keys, count * 2);
+          containers = Arrays.copyOf(containers, count * 2);
+        }
+        keys[count++] = key;
+      }
+
+      char low = (char) value;
+      if (size > 0 && values[size - 1] == low) {
+        return this;
+      }
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = low;
+      return this;
+    }
+
+    IntBitmap build() {
+      flush();
+      return new IntBitmap(Arrays.copyOf(keys, count), Arrays.copyOf(containers, count), count);
+    }
+
+    private void flush() {
+      if (size > 0) {
+        containers[count - 1] = Container.of(Arrays.copyOf(values, size), size);
+        size = 0;
+      }
+    }
+
+  }
+
+  /**
+   * The low 16 bits of the values sharing the same high bits: a sorted array of at most
+   * {@value #ARRAY_MAX} values, or a bitmap.
+   */
+  private static final class Container {
+
+    private final char[] array;
+    private final long[] words;
+    private final int cardinality;
+
+    private Container(char[] array, long[] words, int cardinality) {
+      this.array = array;
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    /** Returns the smallest container for the given sorted values. */
+    static Container of(char[] values, int size) {
+      if (size <= ARRAY_MAX) {
+        char[] array = values.length == size ? values : Arrays.copyOf(values, size);
+        return new Container(array, null, size);
+      }
+      long[] words = new long[WORDS];
+      for (int i = 0; i < size; i++) {
+        words[values[i] >>> 6] |= 1L << values[i];
+      }
+      return new Container(null, words, size);
+    }
+
+    /** Returns the smallest container for the given bitmap words. */
+    static Container of(long[] words) {
+      int cardinality = 0;
+      for (long word : words) {
+        cardinality += Long.bitCount(word);
+      }
+      if (cardinality > ARRAY_MAX) {
+        return new Container(null, words, cardinality);
+      }
+      char[] values = new char[cardinality];
+      int count = 0;
+      for (int i = 0; i < words.length; i++) {
+        for (long word = words[i]; word != 0; word &= word - 1) {
+          values[count++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+        }
+      }
+      return new Container(values, null, cardinality);
+    }
+
+    boolean contains(char value) {
+      return words != null
+          ? (words[value >>> 6] & (1L << value)) != 0
+          : Arrays.binarySearch(array, value) >= 0;
+    }
+
+    /** Returns the smallest low value not smaller than {@code from}, or -1 if none. */
+    int next(int from) {
+      if (words == null) {
+        int index = Arrays.binarySearch(array, (char) from);
+        index = index >= 0 ? index : -index - 1;
+        return index < array.length ? array[index] : -1;
+      }
+      int i = from >>> 6;
+      long word = words[i] & (-1L << from);
+      while (word == 0) {
+        if (++i == WORDS) {
+          return -1;
+        }
+        word = words[i];
+      }
+      return (i << 6) | Long.numberOfTrailingZeros(word);
+    }
+
+    void forEach(int high, IntConsumer consumer) {
+      if (words == null) {
+        for (char value : array) {
+          consumer.accept(high | value);
+        }
+        return;
+      }
+      for (int i = 0; i < words.length; i++) {
+        for (long word = words[i]; word != 0; word &= word - 1) {
+          consumer.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+        }
+      }
+    }
+
+    Container and(Container other) {
+      if (words != null && other.words != null) {
+        long[] result = new long[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+          result[i] = words[i] & other.words[i];
+        }
+        return of(result);
+      }
+      // At least one side is an array: keep the array values found in the other side
+      Container small = words == null ? this : other;
+      Container large = small == this ? other : this;
+      char[] result = new char[small.cardinality];
+      int count = 0;
+      for (char value : small.array) {
+        if (large.contains(value)) {
+          result[count++] = value;
+        }
+      }
+      return new Container(Arrays.copyOf(result, count), null, count);
+    }
+
+    Container or(Container other) {
+      if (words == null && other.words == null
+          && cardinality + other.cardinality <= ARRAY_MAX) {
+        char[] result = new char[cardinality + other.cardinality];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < array.length || j < other.array.length) {
+          if (j == other.array.length || (i < array.length && array[i] < other.array[j])) {
+            result[count++] = array[i++];
+          } else if (i == array.length || array[i] > other.array[j]) {
+            result[count++] = other.array[j++];
+          } else {
+            result[count++] = array[i++];
+            j++;
+          }
+        }
+        return new Container(Arrays.copyOf(result, count), null, count);
+      }
+      long[] result = toWords();
+      other.orInto(result);
+      return of(result);
+    }
+
+    Container andNot(Container other) {
+      if (words == null) {
+        char[] result = new char[cardinality];
+        int count = 0;
+        for (char value : array) {
+          if (!other.contains(value)) {
+            result[count++] = value;
+          }
+        }
+        return new Container(Arrays.copyOf(result, count), null, count);
+      }
+      long[] result = words.clone();
+      if (other.words != null) {
+        for (int i = 0; i < WORDS; i++) {
+          result[i] &= ~other.words[i];
+        }
+      } else {
+        for (char value : other.array) {
+          result[value >>> 6] &= ~(1L << value);
+        }
+      }
+      return of(result);
+    }
+
+    private long[] toWords() {
+      long[] result = new long[WORDS];
+      orInto(result);
+      return result;
+    }
+
+    private void orInto(long[] result) {
+      if (words != null) {
+        for (int i = 0; i < WORDS; i++) {
+          result[i] |= words[i];
+        }
+      } else {
+        for (char value : array) {
+          result[value >>> 6] |= 1L << value;
+        }
+      }
+    }
+
+  }
+
+}
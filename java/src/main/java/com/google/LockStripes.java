@@ -0,0 +1,33 @@
+package com.google;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks shared by an unbounded set of keys, each key always mapping to the
+ * same lock.
+ *
+ * Operations on different keys rarely contend, as they mostly fall on different stripes,
+ * while the memory used stays fixed however many keys there are.
+ */
+final class LockStripes {
+
+  private final ReentrantLock[] locks;
+
+  /** Creates the given number of stripes, rounded up to a power of two. */
+  LockStripes(int stripes) {
+    int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+    this.locks = new ReentrantLock[size];
+    for (int i = 0; i < size; i++) {
+      locks[i] = new ReentrantLock();
+    }
+  }
+
+  /** Returns the lock of the key. */
+  ReentrantLock get(Object key) {
+    int hash = key.hashCode();
+    // Spread the high bits, as only the low ones pick the stripe
+    hash ^= hash >>> 16;
+    return locks[hash & (locks.length - 1)];
+  }
+
+}
@@ -0,0 +1,434 @@
+package com.google;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A video store for very large catalogs that keeps titles, ids and tag ids in off-heap
+ * columns instead of one object per video.
+ *
+ * Each column is an append-only byte heap of length-prefixed values in direct memory,
+ * plus an offset column giving the address of the value of every ordinal. Case-folded
+ * title keys are stored next to the titles, and searched in place. Nothing per
+ * video lives on the Java heap: {@link Video} objects are lightweight views created on
+ * demand, e.g. when a video is printed.
+ *
+ * Builders started from an existing store share its data: heaps are append-only and
+ * offset chunks are copied on first write, so the original store never changes. A reload
+ * thus costs the new values plus a 32 KB copy of each offset chunk it writes to. The
+ * values it replaces or removes stay in the shared heaps, counted as dead bytes; once
+ * they outweigh the live ones, the store is compacted into fresh heaps holding only live
+ * values, so direct memory stays proportional to the catalog however often it reloads.
+ */
+final class OffHeapVideoStore implements VideoStore {
+
+  private static final long REMOVED = -1;
+
+  // Heaps are compacted once this share of their bytes, at least, is dead
+  private static final double MAX_DEAD_RATIO = 0.5;
+
+  private final int size;
+  private final LongColumn titleOffsets;
+  private final LongColumn keyOffsets;
+  private final LongColumn idOffsets;
+  private final LongColumn tagOffsets;
+  private final ByteHeap titles;
+  private final ByteHeap ids;
+  private final ByteHeap tags;
+  private final VideoFlags flags;
+
+  // Bytes of the heaps no ordinal refers to any more
+  private final long deadBytes;
+
+  private OffHeapVideoStore(Builder builder) {
+    this.size = builder.size;
+    this.titleOffsets = builder.titleOffsets;
+    this.keyOffsets = builder.keyOffsets;
+    this.idOffsets = builder.idOffsets;
+    this.tagOffsets = builder.tagOffsets;
+    this.titles = builder.titles;
+    this.ids = builder.ids;
+    this.tags = builder.tags;
+    this.flags = builder.flags;
+    this.deadBytes = builder.deadBytes;
+  }
+
+  static Builder builder(VideoFlags flags) {
+    return new Builder(flags);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String getVideoId(int ordinal) {
+    long offset = idOffsets.get(ordinal);
+    return offset != REMOVED ? ids.getString(offset) : null;
+  }
+
+  @Override
+  public String getTitle(int ordinal) {
+    return titles.getString(titleOffsets.get(ordinal));
+  }
+
+  @Override
+  public byte[] getTitleKey(int ordinal) {
+    return titles.getBytes(keyOffsets.get(ordinal));
+  }
+
+  @Override
+  public boolean titleKeyContains(int ordinal, byte[] foldedTerm) {
+    return titles.contains(keyOffsets.get(ordinal), foldedTerm);
+  }
+
+  @Override
+  public int[] getTagIds(int ordinal) {
+    return tags.getInts(tagOffsets.get(ordinal));
+  }
+
+  @Override
+  public int compareByTitle(int a, int b) {
+    int result = titles.compare(titleOffsets.get(a), titleOffsets.get(b));
+    return result != 0 ? result : ids.compare(idOffsets.get(a), idOffsets.get(b));
+  }
+
+  @Override
+  public int compareTitleKeys(int a, int b) {
+    return titles.compare(keyOffsets.get(a), keyOffsets.get(b));
+  }
+
+  /** Returns the bytes of the heaps no ordinal refers to any more. */
+  long deadBytes() {
+    return deadBytes;
+  }
+
+  @Override
+  public Video getVideo(int ordinal) {
+    String videoId = getVideoId(ordinal);
+    if (videoId == null) {
+      return null;
+    }
+    return new Video(ordinal, getTitle(ordinal), getTitleKey(ordinal), videoId,
+        getTagIds(ordinal), flags);
+  }
+
+  @Override
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  static final class Builder implements VideoStore.Builder {
+
+    private int size;
+    private final LongColumn titleOffsets;
+    private final LongColumn keyOffsets;
+    private final LongColumn idOffsets;
+    private final LongColumn tagOffsets;
+    private final ByteHeap titles;
+    private final ByteHeap ids;
+    private final ByteHeap tags;
+    private final VideoFlags flags;
+    private long deadBytes;
+
+    private Builder(VideoFlags flags) {
+      this.titleOffsets = new LongColumn();
+      this.keyOffsets = new LongColumn();
+      this.idOffsets = new LongColumn();
+      this.tagOffsets = new LongColumn();
+      this.titles = new ByteHeap();
+      this.ids = new ByteHeap();
+      this.tags = new ByteHeap();
+      this.flags = flags;
+    }
+
+    private Builder(OffHeapVideoStore store) {
+      this.size = store.size;
+      this.titleOffsets = store.titleOffsets.copy();
+      this.keyOffsets = store.keyOffsets.copy();
+      this.idOffsets = store.idOffsets.copy();
+      this.tagOffsets = store.tagOffsets.copy();
+      this.titles = store.titles.copy();
+      this.ids = store.ids.copy();
+      this.tags = store.tags.copy();
+      this.flags = store.flags;
+      this.deadBytes = store.deadBytes;
+    }
+
+    @Override
+    public int add(String title, String videoId, int[] tagIds) {
+      set(size, title, videoId, tagIds);
+      return size++;
+    }
+
+    @Override
+    public void set(int ordinal, String title, String videoId, int[] tagIds) {
+      if (ordinal < size && idOffsets.get(ordinal) != REMOVED) {
+        deadBytes += valueBytes(ordinal);
+      }
+      titleOffsets.set(ordinal, titles.putString(title));
+      keyOffsets.set(ordinal, titles.putBytes(SearchKey.of(title)));
+      idOffsets.set(ordinal, ids.putString(videoId));
+      tagOffsets.set(ordinal, tags.putInts(tagIds));
+    }
+
+    @Override
+    public void remove(int ordinal) {
+      if (idOffsets.get(ordinal) != REMOVED) {
+        deadBytes += valueBytes(ordinal);
+        idOffsets.set(ordinal, REMOVED);
+      }
+    }
+
+    @Override
+    public OffHeapVideoStore build() {
+      long used = titles.usedBytes() + ids.usedBytes() + tags.usedBytes();
+      if (deadBytes > ByteHeap.MIN_CHUNK && deadBytes >= used * MAX_DEAD_RATIO) {
+        return compact().build();
+      }
+      return new OffHeapVideoStore(this);
+    }
+
+    /** Returns a builder with the same videos, whose heaps hold nothing but their values. */
+    private Builder compact() {
+      Builder compacted = new Builder(flags);
+      for (int ordinal = 0; ordinal < size; ordinal++) {
+        if (idOffsets.get(ordinal) == REMOVED) {
+          compacted.titleOffsets.set(ordinal, REMOVED);
+          compacted.keyOffsets.set(ordinal, REMOVED);
+          compacted.idOffsets.set(ordinal, REMOVED);
+          compacted.tagOffsets.set(ordinal, REMOVED);
+          continue;
+        }
+        compacted.titleOffsets.set(ordinal, compacted.titles.copyBytes(titles, titleOffsets.get(ordinal)));
+        compacted.keyOffsets.set(ordinal, compacted.titles.copyBytes(titles, keyOffsets.get(ordinal)));
+        compacted.idOffsets.set(ordinal, compacted.ids.copyBytes(ids, idOffsets.get(ordinal)));
+        compacted.tagOffsets.set(ordinal, compacted.tags.copyInts(tags, tagOffsets.get(ordinal)));
+      }
+      compacted.size = size;
+      return compacted;
+    }
+
+    /** Returns the bytes taken by the values of a video that was not removed. */
+    private long valueBytes(int ordinal) {
+      return titles.bytesSize(titleOffsets.get(ordinal)) + titles.bytesSize(keyOffsets.get(ordinal))
+          + ids.bytesSize(idOffsets.get(ordinal)) + tags.intsSize(tagOffsets.get(ordinal));
+    }
+
+  }
+
+  /**
+   * A growable array of longs in direct memory, split in fixed-size chunks. Copies share
+   * chunks until they write to them. Chunks are small (32 KB), as a copy writing one value
+   * copies the whole chunk.
+   */
+  private static final class LongColumn {
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_LONGS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_LONGS - 1;
+
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private boolean[] owned = new boolean[0];
+
+    long get(int index) {
+      return chunks[index >>> CHUNK_SHIFT].getLong((index & CHUNK_MASK) * Long.BYTES);
+    }
+
+    void set(int index, long value) {
+      int chunk = index >>> CHUNK_SHIFT;
+      if (chunk >= chunks.length) {
+        chunks = Arrays.copyOf(chunks, chunk + 1);
+        owned = Arrays.copyOf(owned, chunk + 1);
+      }
+      if (!owned[chunk]) {
+        ByteBuffer copy = ByteBuffer.allocateDirect(CHUNK_LONGS * Long.BYTES);
+        if (chunks[chunk] != null) {
+          copy.put(chunks[chunk].duplicate().clear());
+        }
+        chunks[chunk] = copy;
+        owned[chunk] = true;
+      }
+      chunks[chunk].putLong((index & CHUNK_MASK) * Long.BYTES, value);
+    }
+
+    LongColumn copy() {
+      LongColumn copy = new LongColumn();
+      copy.chunks = chunks.clone();
+      copy.owned = new boolean[chunks.length];
+      return copy;
+    }
+
+  }
+
+  /**
+   * An append-only heap of length-prefixed values in direct memory. An address holds the
+   * chunk index in its high 32 bits and the offset in the chunk in its low 32 bits;
+   * values never span chunks.
+   */
+  private static final class ByteHeap {
+
+    private static final int MIN_CHUNK = 1 << 16;
+    private static final int MAX_CHUNK = 1 << 26;
+
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private ByteBuffer current;
+
+    // Bytes of all values written, including those of the chunks shared with the original
+    private long used;
+
+    long putString(String value) {
+      return putBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    long putBytes(byte[] bytes) {
+      ByteBuffer chunk = reserve(Integer.BYTES + bytes.length);
+      long address = address(chunk);
+      chunk.putInt(bytes.length).put(bytes);
+      return address;
+    }
+
+    long putInts(int[] values) {
+      ByteBuffer chunk = reserve(Integer.BYTES * (values.length + 1));
+      long address = address(chunk);
+      chunk.putInt(values.length);
+      for (int value : values) {
+        chunk.putInt(value);
+      }
+      return address;
+    }
+
+    /** Appends a copy of the length-prefixed bytes at the address of the other heap. */
+    long copyBytes(ByteHeap source, long address) {
+      return copy(source, address, source.bytesSize(address));
+    }
+
+    /** Appends a copy of the length-prefixed ints at the address of the other heap. */
+    long copyInts(ByteHeap source, long address) {
+      return copy(source, address, source.intsSize(address));
+    }
+
+    private long copy(ByteHeap source, long address, int bytes) {
+      ByteBuffer from = source.chunks[(int) (address >>> 32)];
+      ByteBuffer chunk = reserve(bytes);
+      long copy = address(chunk);
+      int offset = (int) address;
+      chunk.put(from.duplicate().limit(offset + bytes).position(offset));
+      return copy;
+    }
+
+    /** Returns the bytes taken by the length-prefixed bytes at the address. */
+    int bytesSize(long address) {
+      return Integer.BYTES + chunks[(int) (address >>> 32)].getInt((int) address);
+    }
+
+    /** Returns the bytes taken by the length-prefixed ints at the address. */
+    int intsSize(long address) {
+      return Integer.BYTES * (1 + chunks[(int) (address >>> 32)].getInt((int) address));
+    }
+
+    /** Returns the bytes of all values written to the heap, live or not. */
+    long usedBytes() {
+      return used;
+    }
+
+    /**
+     * Compares the UTF-8 strings at the two addresses in the order of their UTF-16 code
+     * units, as {@link String#compareTo} would, without decoding them.
+     */
+    int compare(long a, long b) {
+      ByteBuffer chunkA = chunks[(int) (a >>> 32)];
+      ByteBuffer chunkB = chunks[(int) (b >>> 32)];
+      int offsetA = (int) a + Integer.BYTES;
+      int offsetB = (int) b + Integer.BYTES;
+      int lengthA = chunkA.getInt((int) a);
+      int lengthB = chunkB.getInt((int) b);
+
+      for (int i = 0; i < Math.min(lengthA, lengthB); i++) {
+        int x = chunkA.get(offsetA + i) & 0xFF;
+        int y = chunkB.get(offsetB + i) & 0xFF;
+        if (x != y) {
+          return SearchKey.compareBytes(x, y);
+        }
+      }
+      return lengthA - lengthB;
+    }
+
+    String getString(long address) {
+      return new String(getBytes(address), StandardCharsets.UTF_8);
+    }
+
+    byte[] getBytes(long address) {
+      ByteBuffer chunk = chunks[(int) (address >>> 32)];
+      int offset = (int) address;
+      byte[] bytes = new byte[chunk.getInt(offset)];
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = chunk.get(offset + Integer.BYTES + i);
+      }
+      return bytes;
+    }
+
+    /** Returns true if the bytes at the address contain the given ones. */
+    boolean contains(long address, byte[] bytes) {
+      ByteBuffer chunk = chunks[(int) (address >>> 32)];
+      int start = (int) address + Integer.BYTES;
+      int last = start + chunk.getInt((int) address) - bytes.length;
+      for (int i = start; i <= last; i++) {
+        int j = 0;
+        while (j < bytes.length && chunk.get(i + j) == bytes[j]) {
+          j++;
+        }
+        if (j == bytes.length) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    int[] getInts(long address) {
+      ByteBuffer chunk = chunks[(int) (address >>> 32)];
+      int offset = (int) address;
+      int[] values = new int[chunk.getInt(offset)];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = chunk.getInt(offset + Integer.BYTES * (i + 1));
+      }
+      return values;
+    }
+
+    /**
+     * Returns a heap that shares the existing chunks and appends into new ones.
+     */
+    ByteHeap copy() {
+      ByteHeap copy = new ByteHeap();
+      copy.chunks = chunks.clone();
+      copy.used = used;
+      return copy;
+    }
+
+    /**
+     * Returns the chunk to write the next value of the given size to, positioned at the
+     * start of the value.
+     */
+    private ByteBuffer reserve(int bytes) {
+      if (bytes > MAX_CHUNK) {
+        throw new IllegalArgumentException("Value of " + bytes + " bytes is too large");
+      }
+      if (current == null || current.remaining() < bytes) {
+        int capacity = current == null ? MIN_CHUNK : Math.min(MAX_CHUNK, current.capacity() * 2);
+        current = ByteBuffer.allocateDirect(Math.max(capacity, bytes));
+        chunks = Arrays.copyOf(chunks, chunks.length + 1);
+        chunks[chunks.length - 1] = current;
+      }
+      used += bytes;
+      return current;
+    }
+
+    private long address(ByteBuffer chunk) {
+      return ((long) (chunks.length - 1) << 32) | chunk.position();
+    }
+
+  }
+
+}
@@ -0,0 +1,152 @@
+package com.google;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Which page of a listing or search to show: either the results after skipping an offset,
+ * or the results after a cursor handed out with a previous page, at most a limit of them.
+ *
+ * A cursor names the last result shown by its title and id rather than by its position,
+ * so paging stays correct when the catalog is reloaded between two pages.
+ */
+final class Paging {
+
+  /** Shows every result. */
+  static final Paging ALL = new Paging(0, Integer.MAX_VALUE, null);
+
+  private final int offset;
+  private final int limit;
+  private final Cursor after;
+
+  private Paging(int offset, int limit, Cursor after) {
+    this.offset = offset;
+    this.limit = limit;
+    this.after = after;
+  }
+
+  /**
+   * Parses paging options such as {@code LIMIT 10 OFFSET 20} or {@code LIMIT 10 AFTER
+   * <cursor>}, in any order and case. A word is only an option if it is LIMIT, OFFSET or
+   * AFTER followed by a value; other words are ignored, as commands always ignored extra
+   * words. Throws an IllegalArgumentException if the value of an option is malformed.
+   */
+  static Paging parse(List<String> options) {
+    int offset = 0;
+    int limit = Integer.MAX_VALUE;
+    Cursor after = null;
+
+    for (int i = 0; i < options.size(); i++) {
+      if (!isOption(options.get(i)) || i + 1 == options.size()) {
+        continue;
+      }
+      String value = options.get(i + 1);
+      switch (options.get(i).toUpperCase()) {
+        case "LIMIT":
+          limit = parseCount(value);
+          if (limit == 0) {
+            throw new IllegalArgumentException("LIMIT must be positive");
+          }
+          break;
+        case "OFFSET":
+          offset = parseCount(value);
+          break;
+        default:
+          after = Cursor.decode(value);
+          break;
+      }
+      i++;
+    }
+
+    if (after != null && offset > 0) {
+      throw new IllegalArgumentException("OFFSET cannot be combined with AFTER");
+    }
+    return new Paging(offset, limit, after);
+  }
+
+  /** Returns true if the word starts paging options, e.g. at the end of a command. */
+  static boolean isOption(String word) {
+    String upper = word.toUpperCase();
+    return upper.equals("LIMIT") || upper.equals("OFFSET") || upper.equals("AFTER");
+  }
+
+  private static int parseCount(String value) {
+    try {
+      int count = Integer.parseInt(value);
+      if (count >= 0) {
+        return count;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below
+    }
+    throw new IllegalArgumentException("Expected a number but got " + value);
+  }
+
+  /** Returns the number of matching results to skip before the page. */
+  int getOffset() {
+    return offset;
+  }
+
+  /** Returns the maximum number of results on the page. */
+  int getLimit() {
+    return limit;
+  }
+
+  /** Returns the cursor the page starts after, or null to start at the offset. */
+  Cursor getAfter() {
+    return after;
+  }
+
+  /**
+   * The position of a result in a listing: how many results came before it, and its title
+   * and id, which give its place in the title order.
+   */
+  static final class Cursor {
+
+    private final int position;
+    private final String title;
+    private final String videoId;
+
+    Cursor(int position, String title, String videoId) {
+      this.position = position;
+      this.title = title;
+      this.videoId = videoId;
+    }
+
+    /** Returns the number of results up to and including the one the cursor names. */
+    int getPosition() {
+      return position;
+    }
+
+    String getTitle() {
+      return title;
+    }
+
+    String getVideoId() {
+      return videoId;
+    }
+
+    /** Encodes the cursor as a single word the user can paste into the next command. */
+    String encode() {
+      String value = position + "\n" + title + "\n" + videoId;
+      return Base64.getUrlEncoder().withoutPadding()
+          .encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Cursor decode(String encoded) {
+      try {
+        String value = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+        String[] parts = value.split("\n", 3);
+        if (parts.length == 3) {
+          return new Cursor(Integer.parseInt(parts[0]), parts[1], parts[2]);
+        }
+      } catch (IllegalArgumentException e) {
+        // Also covers NumberFormatException; reported below
+      }
+      throw new IllegalArgumentException("Invalid cursor " + encoded);
+    }
+
+  }
+
+}
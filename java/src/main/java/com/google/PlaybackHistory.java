@@ -0,0 +1,72 @@
+package com.google;
+
+/**
+ * The videos a session played last, most recent first, with when each stopped and how far
+ * it was watched.
+ *
+ * Entries live in a fixed-size ring of parallel primitive arrays, overwriting the oldest
+ * once full, so recording one allocates nothing and a session's history stays the same
+ * size however long it runs. The arrays are only allocated on the first entry, so
+ * sessions that never play anything cost nothing.
+ *
+ * Not thread-safe: it has a single writer, the thread issuing the commands of its session.
+ */
+final class PlaybackHistory {
+
+  private final int capacity;
+  private int[] ordinals;
+  private long[] times;
+  private long[] positions;
+
+  // Number of entries ever recorded; the next one goes to slot count % capacity
+  private long count;
+
+  PlaybackHistory(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Records that the video stopped at the given time, in epoch milliseconds, after being
+   * watched up to the given position, in milliseconds.
+   */
+  void add(int ordinal, long time, long position) {
+    if (ordinals == null) {
+      ordinals = new int[capacity];
+      times = new long[capacity];
+      positions = new long[capacity];
+    }
+    int slot = (int) (count % capacity);
+    ordinals[slot] = ordinal;
+    times[slot] = time;
+    positions[slot] = position;
+    count++;
+  }
+
+  /** Returns the number of entries kept, at most the capacity. */
+  int size() {
+    return (int) Math.min(count, capacity);
+  }
+
+  /** Returns the ordinal of the entry, 0 being the most recent one. */
+  int ordinal(int back) {
+    return ordinals[slot(back)];
+  }
+
+  /** Returns when the video of the entry stopped, in epoch milliseconds. */
+  long time(int back) {
+    return times[slot(back)];
+  }
+
+  /** Returns how far the video of the entry was watched, in milliseconds. */
+  long position(int back) {
+    return positions[slot(back)];
+  }
+
+  private int slot(int back) {
+    if (back < 0 || back >= size()) {
+      throw new IndexOutOfBoundsException("No history entry " + back);
+    }
+    return (int) ((count - 1 - back) % capacity);
+  }
+
+}
@@ -0,0 +1,250 @@
+package com.google;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * The playback state of every session watching videos of one library, by session id.
+ *
+ * A session is created once, and playback commands then only compare-and-set one atomic
+ * long, packing the ordinal of the video it is playing with a pause bit, and write the
+ * session's bounded history. No command takes a lock, so sessions never wait for each
+ * other, and commands allocate nothing per call. Several sessions may play the same
+ * video, each with its own pause state.
+ */
+final class PlaybackSessions {
+
+  /** The state of a session playing nothing. */
+  static final long STOPPED = -1;
+
+  private static final long PAUSED = 1;
+
+  /** Number of videos kept in the history of a session. */
+  static final int HISTORY_SIZE = 16;
+
+  private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+  private final LongSupplier clock;
+
+  PlaybackSessions() {
+    this(System::currentTimeMillis);
+  }
+
+  /** Creates sessions timing playback with the given clock, in epoch milliseconds. */
+  PlaybackSessions(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /** Returns the session with the given id, creating it if needed. */
+  Session session(String sessionId) {
+    return sessions.computeIfAbsent(sessionId, id -> new Session(clock));
+  }
+
+  /** Returns the number of sessions. */
+  int size() {
+    return sessions.size();
+  }
+
+  /**
+   * Stops every session playing a video whose ordinal satisfies the predicate, e.g. one
+   * that was flagged or removed.
+   */
+  void stopIf(IntPredicate ordinals) {
+    for (Session session : sessions.values()) {
+      session.stopIf(ordinals);
+    }
+  }
+
+  /** Returns true if the state is that of a session playing a video, paused or not. */
+  static boolean isPlaying(long state) {
+    return state != STOPPED;
+  }
+
+  /** Returns true if the state is that of a session with its video paused. */
+  static boolean isPaused(long state) {
+    return state != STOPPED && (state & PAUSED) != 0;
+  }
+
+  /** Returns the ordinal of the video of a playing state. */
+  static int ordinal(long state) {
+    return (int) (state >>> 1);
+  }
+
+  private static long playing(int ordinal) {
+    return (long) ordinal << 1;
+  }
+
+  /**
+   * The playback state of one session. Every change returns the state it replaced, so
+   * that the caller can tell what it did.
+   *
+   * The state is only ever changed by compare-and-set, so a session takes no lock, even
+   * when it is stopped from another session's thread. The history and the watch time of
+   * the current video have a single writer: the thread issuing the session's own commands,
+   * which records a transition after its compare-and-set succeeded. Videos stopped from
+   * outside with {@link #stopIf}, because they were flagged or removed, cannot be played
+   * again, and are not recorded.
+   */
+  static final class Session {
+
+    private final AtomicLong state = new AtomicLong(STOPPED);
+
+    // The order random videos are played in, or null to pick them independently
+    private final AtomicReference<Shuffle> shuffle = new AtomicReference<>();
+
+    private final LongSupplier clock;
+    private final PlaybackHistory history = new PlaybackHistory(HISTORY_SIZE);
+
+    // Written by the session's own commands only: when the video last started or resumed,
+    // and how far it was watched before that
+    private long startedAt;
+    private long watched;
+
+    private Session(LongSupplier clock) {
+      this.clock = clock;
+    }
+
+    /** Returns the current state. */
+    long state() {
+      return state.get();
+    }
+
+    /** Starts playing the video, unpaused, replacing whatever was playing. */
+    long play(int ordinal) {
+      return play(ordinal, 0);
+    }
+
+    /**
+     * Starts playing the video from the given position in milliseconds, unpaused,
+     * replacing whatever was playing.
+     */
+    long play(int ordinal, long position) {
+      long previous = state.getAndSet(playing(ordinal));
+      long now = clock.getAsLong();
+      record(previous, now);
+      startedAt = now;
+      watched = position;
+      return previous;
+    }
+
+    /** Stops playing. */
+    long stop() {
+      long previous = state.getAndSet(STOPPED);
+      record(previous, clock.getAsLong());
+      return previous;
+    }
+
+    /** Pauses the video if one is playing and not paused already. */
+    long pause() {
+      while (true) {
+        long current = state.get();
+        if (!isPlaying(current) || isPaused(current)) {
+          return current;
+        }
+        if (state.compareAndSet(current, current | PAUSED)) {
+          watched += clock.getAsLong() - startedAt;
+          return current;
+        }
+      }
+    }
+
+    /** Resumes the video if one is paused. */
+    long resume() {
+      while (true) {
+        long current = state.get();
+        if (!isPaused(current)) {
+          return current;
+        }
+        if (state.compareAndSet(current, current & ~PAUSED)) {
+          startedAt = clock.getAsLong();
+          return current;
+        }
+      }
+    }
+
+    /** Returns the shuffle order of the session, or null if shuffle is off. */
+    Shuffle getShuffle() {
+      return shuffle.get();
+    }
+
+    /** Sets the shuffle order of the session, or turns shuffle off with null. */
+    void setShuffle(Shuffle order) {
+      shuffle.set(order);
+    }
+
+    /**
+     * Replaces the shuffle order if it is still the expected one, e.g. with a new round
+     * once it was played through, and returns the order now in place.
+     */
+    Shuffle replaceShuffle(Shuffle expected, Shuffle order) {
+      return shuffle.compareAndSet(expected, order) ? order : shuffle.get();
+    }
+
+    /** Stops playing if the ordinal of the video satisfies the predicate. */
+    long stopIf(IntPredicate ordinals) {
+      while (true) {
+        long current = state.get();
+        if (!isPlaying(current) || !ordinals.test(ordinal(current))) {
+          return current;
+        }
+        if (state.compareAndSet(current, STOPPED)) {
+          return current;
+        }
+      }
+    }
+
+    /**
+     * Returns how far back in the history the most recent entry not of the video playing
+     * now is, for {@link #historyOrdinal} and {@link #historyPosition}, or -1 if there is
+     * none.
+     */
+    int previous() {
+      long current = state.get();
+      for (int back = 0; back < history.size(); back++) {
+        if (!isPlaying(current) || history.ordinal(back) != ordinal(current)) {
+          return back;
+        }
+      }
+      return -1;
+    }
+
+    /** Returns the ordinal of the video of a history entry, 0 being the most recent. */
+    int historyOrdinal(int back) {
+      return history.ordinal(back);
+    }
+
+    /** Returns how far the video of a history entry was watched, in milliseconds. */
+    long historyPosition(int back) {
+      return history.position(back);
+    }
+
+    /**
+     * Calls the visitor with every history entry, most recent first: the ordinal of the
+     * video, when it stopped and how far it was watched.
+     */
+    void forEachInHistory(HistoryVisitor visitor) {
+      for (int back = 0; back < history.size(); back++) {
+        visitor.visit(history.ordinal(back), history.time(back), history.position(back));
+      }
+    }
+
+    /** Records a video that was playing in the given state until now. */
+    private void record(long previous, long now) {
+      if (isPlaying(previous)) {
+        long position = watched + (isPaused(previous) ? 0 : now - startedAt);
+        history.add(ordinal(previous), now, position);
+      }
+    }
+
+  }
+
+  /** Receives the entries of a session history. */
+  interface HistoryVisitor {
+
+    void visit(int ordinal, long time, long position);
+
+  }
+
+}
@@ -0,0 +1,232 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index over the words of the titles and tags of a catalog, for search results
+ * ranked by relevance with BM25.
+ *
+ * Each word has a posting list of the title ranks (positions in the title order) of the
+ * videos using it, with how many times they do. A query walks the posting lists of its
+ * words together, scoring one video at a time, and keeps only the best {@code k} in a
+ * bounded heap, so ranking costs O(matches log k) rather than a sort of every match.
+ */
+final class RankedIndex {
+
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+
+  private final Map<String, Postings> postings;
+  private final int[] lengths;
+  private final double averageLength;
+
+  RankedIndex(VideoCatalog catalog) {
+    int[] order = catalog.getTitleOrder();
+    VideoStore store = catalog.getStore();
+    TagDictionary dictionary = TagDictionary.global();
+
+    Map<String, Postings> building = new HashMap<>();
+    this.lengths = new int[order.length];
+    long total = 0;
+
+    for (int rank = 0; rank < order.length; rank++) {
+      int ordinal = order[rank];
+      StringBuilder text = new StringBuilder(SearchKey.decode(store.getTitleKey(ordinal)));
+      for (int tagId : store.getTagIds(ordinal)) {
+        text.append(' ').append(dictionary.key(tagId));
+      }
+
+      // Words of a video are added in a row, so repeats only bump the last frequency
+      for (String word : TitleWords.split(text.toString())) {
+        building.computeIfAbsent(word, key -> new Postings()).add(rank);
+        lengths[rank]++;
+      }
+      total += lengths[rank];
+    }
+
+    building.values().forEach(Postings::trim);
+    this.postings = building;
+    this.averageLength = order.length > 0 ? (double) total / order.length : 0;
+  }
+
+  /**
+   * Returns the title ranks of the at most {@code k} videos scoring best for the query, best
+   * first, with ties in title order. Videos using none of its words, and excluded ones,
+   * are left out.
+   */
+  int[] search(String query, int k, IntBitmap excluded) {
+    Set<String> words = new LinkedHashSet<>(TitleWords.split(SearchKey.fold(query)));
+    Postings[] lists = new Postings[words.size()];
+    double[] weights = new double[words.size()];
+    int[] positions = new int[words.size()];
+    int count = 0;
+
+    for (String word : words) {
+      Postings list = postings.get(word);
+      if (list != null) {
+        lists[count] = list;
+        // Inverse document frequency: rarer words weigh more
+        weights[count] = Math.log(1 + (lengths.length - list.size + 0.5) / (list.size + 0.5));
+        count++;
+      }
+    }
+
+    // No more videos can match than the catalog has, whatever the count asked for
+    k = Math.min(k, lengths.length);
+    TopK top = new TopK(k);
+    while (k > 0) {
+      // The next video is the smallest rank any posting list is at
+      int rank = Integer.MAX_VALUE;
+      for (int i = 0; i < count; i++) {
+        if (positions[i] < lists[i].size) {
+          rank = Math.min(rank, lists[i].ranks[positions[i]]);
+        }
+      }
+      if (rank == Integer.MAX_VALUE) {
+        break;
+      }
+
+      double score = 0;
+      double norm = K1 * (1 - B + B * lengths[rank] / averageLength);
+      for (int i = 0; i < count; i++) {
+        if (positions[i] < lists[i].size && lists[i].ranks[positions[i]] == rank) {
+          int frequency = lists[i].frequencies[positions[i]] & 0xFF;
+          score += weights[i] * frequency * (K1 + 1) / (frequency + norm);
+          positions[i]++;
+        }
+      }
+
+      if (!excluded.contains(rank)) {
+        top.offer(rank, score);
+      }
+    }
+
+    return top.drain();
+  }
+
+  /** The ranks using a word, ascending, with the number of times each uses it. */
+  private static final class Postings {
+
+    private int[] ranks = new int[2];
+    private byte[] frequencies = new byte[2];
+    private int size;
+
+    void add(int rank) {
+      if (size > 0 && ranks[size - 1] == rank) {
+        // Saturate rather than overflow; BM25 barely tells such counts apart anyway
+        if (frequencies[size - 1] != (byte) 0xFF) {
+          frequencies[size - 1]++;
+        }
+        return;
+      }
+      if (size == ranks.length) {
+        ranks = Arrays.copyOf(ranks, size * 2);
+        frequencies = Arrays.copyOf(frequencies, size * 2);
+      }
+      ranks[size] = rank;
+      frequencies[size] = 1;
+      size++;
+    }
+
+    void trim() {
+      ranks = Arrays.copyOf(ranks, size);
+      frequencies = Arrays.copyOf(frequencies, size);
+    }
+
+  }
+
+  /**
+   * A bounded min-heap of the best scored ranks seen so far: its root is the worst of
+   * them, replaced whenever a better one comes. Its arrays grow with the matches up to the
+   * bound, so a large bound costs nothing for a query with few matches.
+   */
+  private static final class TopK {
+
+    private final int k;
+    private int[] ranks;
+    private double[] scores;
+    private int size;
+
+    TopK(int k) {
+      this.k = k;
+      this.ranks = new int[Math.min(k, 16)];
+      this.scores = new double[ranks.length];
+    }
+
+    void offer(int rank, double score) {
+      if (size < k) {
+        if (size == ranks.length) {
+          ranks = Arrays.copyOf(ranks, (int) Math.min(k, size * 2L));
+          scores = Arrays.copyOf(scores, ranks.length);
+        }
+        ranks[size] = rank;
+        scores[size] = score;
+        up(size++);
+      } else if (worse(ranks[0], scores[0], rank, score)) {
+        ranks[0] = rank;
+        scores[0] = score;
+        down(0);
+      }
+    }
+
+    /** Empties the heap and returns its ranks, best first. */
+    int[] drain() {
+      int[] result = new int[size];
+      while (size > 0) {
+        result[size - 1] = ranks[0];
+        size--;
+        ranks[0] = ranks[size];
+        scores[0] = scores[size];
+        down(0);
+      }
+      return result;
+    }
+
+    /** Lower scores are worse; among equal ones, later titles are. */
+    private static boolean worse(int rank, double score, int otherRank, double otherScore) {
+      return score < otherScore || (score == otherScore && rank > otherRank);
+    }
+
+    private void up(int index) {
+      while (index > 0) {
+        int parent = (index - 1) / 2;
+        if (!worse(ranks[index], scores[index], ranks[parent], scores[parent])) {
+          return;
+        }
+        swap(index, parent);
+        index = parent;
+      }
+    }
+
+    private void down(int index) {
+      while (true) {
+        int worst = index;
+        for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+          if (worse(ranks[child], scores[child], ranks[worst], scores[worst])) {
+            worst = child;
+          }
+        }
+        if (worst == index) {
+          return;
+        }
+        swap(index, worst);
+        index = worst;
+      }
+    }
+
+    private void swap(int a, int b) {
+      int rank = ranks[a];
+      ranks[a] = ranks[b];
+      ranks[b] = rank;
+      double score = scores[a];
+      scores[a] = scores[b];
+      scores[b] = score;
+    }
+
+  }
+
+}
@@ -0,0 +1,35 @@
+package com.google;
+
+import java.util.List;
+
+/**
+ * One page of the results of a listing or search, in title order.
+ */
+final class ResultPage {
+
+  private final List<Video> videos;
+  private final int position;
+  private final Paging.Cursor next;
+
+  ResultPage(List<Video> videos, int position, Paging.Cursor next) {
+    this.videos = videos;
+    this.position = position;
+    this.next = next;
+  }
+
+  /** Returns the videos on the page. */
+  List<Video> getVideos() {
+    return videos;
+  }
+
+  /** Returns the number of results before this page, i.e. the position of its first one. */
+  int getPosition() {
+    return position;
+  }
+
+  /** Returns the cursor to the next page, or null if this is the last one. */
+  Paging.Cursor getNext() {
+    return next;
+  }
+
+}
@@ -1,24 +1,83 @@
 package com.google;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 
 public class Run {
   public static void main(String[] args){
     System.out.println("Hello and welcome to YouTube, what would you like to do? "
         + "Enter HELP for list of available commands or EXIT to terminate.");
-    var videoPlayer = new VideoPlayer();
+    var videoLibrary = createLibrary();
+    var stateLog = createStateLog();
+    VideoPlayer videoPlayer;
+    try {
+      videoPlayer = new VideoPlayer(videoLibrary, stateLog);
+    } catch (UncheckedIOException e) {
+      System.out.printf("%s: %s%n", e.getMessage(), e.getCause().getMessage());
+      return;
+    }
+    if (Boolean.getBoolean("youtube.watch") && videoLibrary.getCatalogFile() != null) {
+      try {
+        new CatalogWatcher(videoLibrary.getCatalogFile(), videoPlayer::reloadCatalog).start();
+      } catch (IOException e) {
+        System.out.println("Couldn't watch the video catalog for changes");
+        e.printStackTrace();
+      }
+    }
     var parser = new CommandParser(videoPlayer);
     var scanner = new Scanner(System.in);
     while (true) {
+      videoPlayer.printNotices();
       System.out.print("YT> ");
       var input = scanner.nextLine();
       if (input.equalsIgnoreCase("exit")) {
         System.out.println("YouTube has now terminated its execution. " +
             "Thank you and goodbye!");
+        try {
+          stateLog.close();
+        } catch (IOException e) {
+          System.out.println("Couldn't close the state log");
+        }
         return;
       }
       parser.executeCommand(Arrays.asList(input.split("\\s+")));
     }
   }
+
+  /**
+   * Keeps playlists and flags in a write-ahead log and snapshot at the path given by
+   * -Dyoutube.state, with .wal and .state appended, so that they survive restarts.
+   * Without it nothing is kept.
+   */
+  private static StateLog createStateLog() {
+    String path = System.getProperty("youtube.state");
+    if (path == null || path.isEmpty()) {
+      return new StateLog();
+    }
+    Path state = Path.of(path).toAbsolutePath();
+    return new StateLog(state.resolveSibling(state.getFileName() + ".wal"),
+        state.resolveSibling(state.getFileName() + ".state"));
+  }
+
+  /**
+   * Loads the catalog given by -Dyoutube.catalog, or the bundled videos.txt, keeping a
+   * binary snapshot next to it so that restarts skip parsing the text catalog.
+   * With -Dyoutube.parallel=true the text catalog is parsed on the common ForkJoinPool,
+   * and with -Dyoutube.offheap=true the videos are kept in off-heap columns.
+   */
+  private static VideoLibrary createLibrary() {
+    String path = System.getProperty("youtube.catalog");
+    Path catalog = path != null ? Path.of(path) : VideoLibrary.bundledCatalog();
+    if (catalog == null) {
+      return new VideoLibrary();
+    }
+
+    ForkJoinPool pool = Boolean.getBoolean("youtube.parallel") ? ForkJoinPool.commonPool() : null;
+    Path snapshot = catalog.resolveSibling(catalog.getFileName() + ".snapshot");
+    return new VideoLibrary(catalog, pool, snapshot, Boolean.getBoolean("youtube.offheap"));
+  }
 }
@@ -0,0 +1,244 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A size-bounded LRU cache of search results, keyed by normalized query.
+ *
+ * A result is the array of title ranks of the unflagged videos matching the query in one
+ * catalog version. Results are dropped when the catalog is replaced, and flagging or
+ * allowing a video drops exactly the results whose query matches that video: those are
+ * the ones it leaves or joins. The cache weighs results by their length, so a few broad
+ * queries cannot crowd out memory.
+ *
+ * Lookups take no lock: the results live in a concurrent map, and a hit only stamps its
+ * entry with the current tick of a clock that advances on every put. Once the results
+ * outweigh the capacity, a single thread evicts the least recently stamped ones. A flag
+ * change looks up the queries the video can match rather than walking the cache: the
+ * video's tags, and the substrings of its title no longer than the longest title term
+ * cached.
+ */
+final class SearchCache {
+
+  // Counted per entry on top of its ranks, for the key and map node
+  private static final int ENTRY_OVERHEAD = 16;
+
+  private final long capacity;
+  private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong weight = new AtomicLong();
+  private final AtomicLong clock = new AtomicLong();
+  private final AtomicInteger longestTitleTerm = new AtomicInteger(-1);
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+
+  /** Creates a cache holding at most about {@code capacity} ranks in total. */
+  SearchCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Returns the cached ranks for the query in the given catalog, or null on a miss.
+   */
+  int[] get(Key key, VideoCatalog catalog) {
+    Entry entry = entries.get(key);
+    if (entry == null || entry.catalog != catalog) {
+      misses.increment();
+      return null;
+    }
+    // Only written when the clock moved, so repeated hits leave the entry's line clean
+    long now = clock.get();
+    if (entry.lastUsed != now) {
+      entry.lastUsed = now;
+    }
+    hits.increment();
+    return entry.ranks;
+  }
+
+  /**
+   * Caches the ranks computed for the query in the given catalog. Nothing is cached if the
+   * flags changed since {@code flagsVersion}, read before computing, as the ranks may
+   * then be stale.
+   */
+  void put(Key key, VideoCatalog catalog, VideoFlags flags, long flagsVersion, int[] ranks) {
+    long entryWeight = ranks.length + ENTRY_OVERHEAD;
+    if (flags.version() != flagsVersion || entryWeight > capacity) {
+      return;
+    }
+
+    if (!key.tag) {
+      longestTitleTerm.accumulateAndGet(key.term.length(), Math::max);
+    }
+    Entry previous = entries.put(key, new Entry(catalog, ranks, clock.getAndIncrement()));
+    if (previous != null) {
+      weight.addAndGet(-previous.weight());
+    }
+    if (flags.version() != flagsVersion) {
+      // A flag changed while caching; its invalidation may have run before the put
+      remove(key);
+      return;
+    }
+
+    if (weight.addAndGet(entryWeight) > capacity) {
+      evict();
+    }
+  }
+
+  /** Drops the least recently used results until the rest fit in the capacity. */
+  private void evict() {
+    if (!evictionLock.tryLock()) {
+      return;
+    }
+    try {
+      List<Map.Entry<Key, Entry>> byUse = new ArrayList<>(entries.entrySet());
+      byUse.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed));
+      for (int i = 0; i < byUse.size() && weight.get() > capacity; i++) {
+        Map.Entry<Key, Entry> eldest = byUse.get(i);
+        if (entries.remove(eldest.getKey(), eldest.getValue())) {
+          weight.addAndGet(-eldest.getValue().weight());
+          evictions.increment();
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Drops the results the video appears in, or would appear in, for a change of its flag.
+   */
+  void invalidate(Video video) {
+    for (String tag : video.getTags()) {
+      remove(Key.tag(tag));
+    }
+
+    int longest = longestTitleTerm.get();
+    if (longest < 0) {
+      return;
+    }
+    String title = SearchKey.decode(video.getTitleKey());
+    remove(new Key(false, ""));
+    for (int length = 1; length <= Math.min(longest, title.length()); length++) {
+      for (int from = 0; from + length <= title.length(); from++) {
+        remove(new Key(false, title.substring(from, from + length)));
+      }
+    }
+  }
+
+  private void remove(Key key) {
+    Entry removed = entries.remove(key);
+    if (removed != null) {
+      weight.addAndGet(-removed.weight());
+      invalidations.increment();
+    }
+  }
+
+  /** Drops every result, e.g. when the catalog is replaced. */
+  void clear() {
+    for (Key key : entries.keySet()) {
+      remove(key);
+    }
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+
+  /** Returns the share of lookups that were hits, or 0 if there were none. */
+  double getHitRatio() {
+    long hits = getHits();
+    long lookups = hits + getMisses();
+    return lookups > 0 ? (double) hits / lookups : 0;
+  }
+
+  /** Returns the number of results dropped to make room for others. */
+  long getEvictions() {
+    return evictions.sum();
+  }
+
+  /** Returns the number of results dropped by flag changes and catalog reloads. */
+  long getInvalidations() {
+    return invalidations.sum();
+  }
+
+  /** A normalized query: what is searched, and the case-folded term. */
+  static final class Key {
+
+    private final boolean tag;
+    private final String term;
+
+    private Key(boolean tag, String term) {
+      this.tag = tag;
+      this.term = term;
+    }
+
+    /** A search of titles containing the term. */
+    static Key title(String searchTerm) {
+      return new Key(false, SearchKey.fold(searchTerm));
+    }
+
+    /** A search of videos carrying the tag. */
+    static Key tag(String videoTag) {
+      return new Key(true, SearchKey.fold(videoTag));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return tag == other.tag && term.equals(other.term);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(tag, term);
+    }
+
+  }
+
+  private static final class Entry {
+
+    private final VideoCatalog catalog;
+    private final int[] ranks;
+
+    // The clock tick of the last lookup or put, for eviction
+    private volatile long lastUsed;
+
+    private Entry(VideoCatalog catalog, int[] ranks, long lastUsed) {
+      this.catalog = catalog;
+      this.ranks = ranks;
+      this.lastUsed = lastUsed;
+    }
+
+    private long weight() {
+      return ranks.length + ENTRY_OVERHEAD;
+    }
+
+  }
+
+}
@@ -0,0 +1,114 @@
+package com.google;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Case-folded search keys for titles, tags and search terms.
+ *
+ * Folding is independent of the default locale, so a Turkish or Lithuanian system folds
+ * like any other, and goes beyond lower-casing: characters with a multi-character upper
+ * case fold like their expansion (a sharp s matches "SS"), final sigma folds like
+ * sigma, and the result is in composed form, so precomposed and combining accents match.
+ *
+ * Titles are folded once when a video is added and kept as UTF-8 bytes. As UTF-8 is
+ * self-synchronizing, a term is in a title exactly when its bytes are in the title's
+ * bytes, so searches compare bytes without decoding or allocating anything per video.
+ */
+final class SearchKey {
+
+  private SearchKey() {
+  }
+
+  /** Folds a title, tag or search term for case-insensitive matching. */
+  static String fold(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) >= 0x80) {
+        String folded = value.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+        return Normalizer.normalize(folded.replace('\u03c2', '\u03c3'), Normalizer.Form.NFC);
+      }
+    }
+    // ASCII, by far the common case, only needs lower-casing
+    return value.toLowerCase(Locale.ROOT);
+  }
+
+  /** Returns the folded value as UTF-8 bytes. */
+  static byte[] of(String value) {
+    return fold(value).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Returns the folded value of a key. */
+  static String decode(byte[] key) {
+    return new String(key, StandardCharsets.UTF_8);
+  }
+
+  /** Returns true if the key contains the term, both folded UTF-8 bytes. */
+  static boolean contains(byte[] key, byte[] term) {
+    if (term.length == 0) {
+      return true;
+    }
+    byte first = term[0];
+    int last = key.length - term.length;
+    for (int i = 0; i <= last; i++) {
+      if (key[i] == first && matchesAt(key, i, term)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Compares two keys, both folded UTF-8 bytes, in the order of their UTF-16 strings, as
+   * {@link String#compareTo} would.
+   */
+  static int compare(byte[] a, byte[] b) {
+    for (int i = 0; i < Math.min(a.length, b.length); i++) {
+      if (a[i] != b[i]) {
+        return compareBytes(a[i] & 0xFF, b[i] & 0xFF);
+      }
+    }
+    return a.length - b.length;
+  }
+
+  /**
+   * Compares a key with a prefix, both folded UTF-8 bytes, like {@link #compare}, except
+   * that a key starting with the prefix compares equal to it. The keys starting with a
+   * prefix are thus one range of the keys sorted by {@link #compare}.
+   */
+  static int compareToPrefix(byte[] key, byte[] prefix) {
+    for (int i = 0; i < prefix.length; i++) {
+      if (i == key.length) {
+        return -1;
+      }
+      if (key[i] != prefix[i]) {
+        return compareBytes(key[i] & 0xFF, prefix[i] & 0xFF);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Compares the first differing unsigned bytes of two UTF-8 strings so that the strings
+   * sort in UTF-16 order.
+   */
+  static int compareBytes(int x, int y) {
+    // UTF-16 puts U+E000..U+FFFF (lead bytes EE, EF) after the surrogates encoding
+    // supplementary characters (lead bytes F0..F4), so move those leads past them
+    if (x >= 0xEE && y >= 0xEE) {
+      x = x < 0xF0 ? x + 0x07 : x;
+      y = y < 0xF0 ? y + 0x07 : y;
+    }
+    return x - y;
+  }
+
+  private static boolean matchesAt(byte[] key, int index, byte[] term) {
+    for (int j = 1; j < term.length; j++) {
+      if (key[index + j] != term[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
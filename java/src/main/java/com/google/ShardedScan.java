@@ -0,0 +1,150 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+/**
+ * A parallel scan of the videos of a catalog, for predicates no index can answer, such as
+ * regular expressions.
+ *
+ * The ordinals are split into fixed-size shards scanned concurrently on a fork/join pool,
+ * each in storage order so that it reads the store sequentially. A shard sorts its matches
+ * into title order by their ranks, and the sorted shard lists are combined with a k-way
+ * merge, so the result comes out in title order without sorting every match again.
+ */
+final class ShardedScan {
+
+  /** Number of ordinals scanned by one task. */
+  static final int SHARD_SIZE = 1 << 14;
+
+  private ShardedScan() {
+  }
+
+  /**
+   * Returns the title ranks of the videos whose ordinal satisfies the predicate, ascending.
+   * Removed ordinals are skipped. The predicate is called concurrently.
+   */
+  static int[] scan(VideoCatalog catalog, IntPredicate predicate, ForkJoinPool pool) {
+    return scan(catalog, predicate, pool, SHARD_SIZE);
+  }
+
+  static int[] scan(
+      VideoCatalog catalog, IntPredicate predicate, ForkJoinPool pool, int shardSize) {
+    int ordinals = catalog.ordinalCount();
+    List<ShardTask> tasks = new ArrayList<>();
+    for (int from = 0; from < ordinals; from += shardSize) {
+      tasks.add(new ShardTask(catalog, predicate, from, Math.min(ordinals, from + shardSize)));
+    }
+
+    if (tasks.isEmpty()) {
+      return new int[0];
+    }
+    if (tasks.size() == 1) {
+      return tasks.get(0).compute();
+    }
+    pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+    int[][] shards = new int[tasks.size()][];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = tasks.get(i).join();
+    }
+    return merge(shards);
+  }
+
+  /**
+   * Merges ascending lists of distinct ranks into one, keeping a min-heap of the lists
+   * keyed by their next rank: O(n log k) for n ranks in k lists.
+   */
+  static int[] merge(int[][] lists) {
+    int total = 0;
+    int[] heap = new int[lists.length];
+    int size = 0;
+    for (int list = 0; list < lists.length; list++) {
+      total += lists[list].length;
+      if (lists[list].length > 0) {
+        heap[size++] = list;
+      }
+    }
+
+    int[] positions = new int[lists.length];
+    for (int i = size / 2 - 1; i >= 0; i--) {
+      down(heap, size, i, lists, positions);
+    }
+
+    int[] result = new int[total];
+    for (int count = 0; count < total; count++) {
+      int list = heap[0];
+      result[count] = lists[list][positions[list]++];
+      if (positions[list] == lists[list].length) {
+        heap[0] = heap[--size];
+      }
+      down(heap, size, 0, lists, positions);
+    }
+    return result;
+  }
+
+  private static void down(int[] heap, int size, int index, int[][] lists, int[] positions) {
+    while (true) {
+      int smallest = index;
+      for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+        if (head(heap[child], lists, positions) < head(heap[smallest], lists, positions)) {
+          smallest = child;
+        }
+      }
+      if (smallest == index) {
+        return;
+      }
+      int swap = heap[index];
+      heap[index] = heap[smallest];
+      heap[smallest] = swap;
+      index = smallest;
+    }
+  }
+
+  private static int head(int list, int[][] lists, int[] positions) {
+    return lists[list][positions[list]];
+  }
+
+  /** Scans one shard of ordinals and returns the ranks of its matches, ascending. */
+  private static final class ShardTask extends RecursiveTask<int[]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final VideoCatalog catalog;
+    private final IntPredicate predicate;
+    private final int from;
+    private final int to;
+
+    ShardTask(VideoCatalog catalog, IntPredicate predicate, int from, int to) {
+      this.catalog = catalog;
+      this.predicate = predicate;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected int[] compute() {
+      int[] ranks = catalog.getRanks();
+      int[] matches = new int[16];
+      int count = 0;
+      for (int ordinal = from; ordinal < to; ordinal++) {
+        if (ranks[ordinal] >= 0 && predicate.test(ordinal)) {
+          if (count == matches.length) {
+            matches = Arrays.copyOf(matches, count * 2);
+          }
+          matches[count++] = ranks[ordinal];
+        }
+      }
+      matches = Arrays.copyOf(matches, count);
+      Arrays.sort(matches);
+      return matches;
+    }
+
+  }
+
+}
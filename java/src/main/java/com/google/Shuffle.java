@@ -0,0 +1,91 @@
+package com.google;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+/**
+ * A shuffled order of the ordinals of a catalog, in which every ordinal comes exactly once,
+ * computed one step at a time in constant memory.
+ *
+ * The order is a pseudo-random permutation of the index range {@code [0, size)}: a small
+ * Feistel network, a bijection on the smallest range of an even number of bits holding
+ * it, keyed by a random seed. Outputs that fall outside the range are fed back in until
+ * one falls inside ("cycle walking"), which keeps it a permutation of the range itself.
+ * As the bit range is less than four times the size, that takes under four rounds on
+ * average. Nothing is materialized, so shuffling a huge catalog costs a few ints.
+ */
+final class Shuffle {
+
+  private static final int ROUNDS = 4;
+
+  private final int size;
+  private final int halfBits;
+  private final int halfMask;
+  private final long[] keys = new long[ROUNDS];
+  private final AtomicInteger position = new AtomicInteger();
+
+  /** Creates a shuffled order of {@code [0, size)} determined by the seed. */
+  Shuffle(int size, long seed) {
+    this.size = size;
+    int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(Math.max(0, size - 1)));
+    this.halfBits = (bits + 1) / 2;
+    this.halfMask = (1 << halfBits) - 1;
+    for (int round = 0; round < ROUNDS; round++) {
+      seed = mix(seed + 0x9E3779B97F4A7C15L);
+      keys[round] = seed;
+    }
+  }
+
+  /** Returns the number of ordinals shuffled. */
+  int size() {
+    return size;
+  }
+
+  /** Returns the ordinal at the given index of the order. */
+  int get(int index) {
+    int value = index;
+    do {
+      value = permute(value);
+    } while (value >= size);
+    return value;
+  }
+
+  /**
+   * Returns the next ordinal of the order that satisfies the predicate, skipping the ones
+   * that do not, or -1 once every ordinal came. Safe to call concurrently: each index is
+   * taken once.
+   */
+  int next(IntPredicate eligible) {
+    while (true) {
+      int index = position.get();
+      if (index >= size) {
+        return -1;
+      }
+      if (position.compareAndSet(index, index + 1)) {
+        int ordinal = get(index);
+        if (eligible.test(ordinal)) {
+          return ordinal;
+        }
+      }
+    }
+  }
+
+  private int permute(int value) {
+    int left = value >>> halfBits;
+    int right = value & halfMask;
+    for (long key : keys) {
+      int next = left ^ ((int) mix(right ^ key) & halfMask);
+      left = right;
+      right = next;
+    }
+    return (left << halfBits) | right;
+  }
+
+  /** A 64-bit finalizer (from SplitMix64): every input bit affects every output bit. */
+  private static long mix(long value) {
+    value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+    value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+    return value ^ (value >>> 31);
+  }
+
+}
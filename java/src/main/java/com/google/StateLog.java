@@ -0,0 +1,502 @@
+package com.google;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the playlists and moderation flags of a player across restarts: an append-only,
+ * checksummed write-ahead log of every change, next to a compacted snapshot of the state.
+ *
+ * Layout of both files (big-endian):
+ * <pre>
+ *   int magic, int version, long generation
+ *   records: int length, int CRC32 of the payload, payload
+ *   payload: byte operation, byte argument count, (int length, UTF-8 argument)...
+ * </pre>
+ * The snapshot holds the records that rebuild the whole state, the log the changes made
+ * since. Recovery replays the snapshot, then the log up to its first torn or corrupt
+ * record, which is where a crash stopped writing. A log of an older generation than the
+ * snapshot was already folded into it by a checkpoint that stopped before emptying it,
+ * and is skipped.
+ *
+ * Changes are synced with group commit: a writer returns once its record is on disk, and
+ * one fsync covers every record written before it started, so writers that arrive while
+ * the log syncs share the next fsync instead of each paying for their own. Every so many
+ * records a checkpoint writes a new snapshot and empties the log, so recovery replays at
+ * most that many changes on top of the state, however long the player ran.
+ */
+final class StateLog implements Closeable {
+
+  static final byte CREATE_PLAYLIST = 1;
+  static final byte ADD_VIDEO = 2;
+  static final byte REMOVE_VIDEO = 3;
+  static final byte CLEAR_PLAYLIST = 4;
+  static final byte DELETE_PLAYLIST = 5;
+  static final byte FLAG_VIDEO = 6;
+  static final byte ALLOW_VIDEO = 7;
+
+  /** Number of records logged between two checkpoints, unless given otherwise. */
+  static final int CHECKPOINT_RECORDS = 10_000;
+
+  private static final int MAGIC = 0x5954534C; // "YTSL"
+  private static final int VERSION = 1;
+
+  private static final int HEADER = 16;
+  private static final int RECORD_HEADER = 8;
+
+  /** Receives records, in the order they were written. */
+  interface Handler {
+
+    void accept(byte operation, String... arguments) throws IOException;
+
+  }
+
+  /** Writes the whole state kept in the log as records, for a snapshot. */
+  interface State {
+
+    void write(Handler out) throws IOException;
+
+  }
+
+  private final Path path;
+  private final Path snapshot;
+  private final int checkpointRecords;
+
+  // Held shared while a change is logged and applied, and exclusively by checkpoints, so
+  // that a snapshot has exactly the changes of the log it replaces
+  private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+  // Set by recovery; null while nothing is kept
+  private FileChannel channel;
+  private State state;
+
+  // Guarded by this: the generation of the log, the bytes ever appended to it and the
+  // records appended since the last checkpoint
+  private long generation;
+  private long written;
+  private int records;
+
+  // Guarded by this: why an append failed, after which the end of the log is unknown and
+  // every append fails until a checkpoint rewrites it
+  private IOException failure;
+
+  // Guarded by syncLock, held by the thread syncing the log: the bytes known to be on disk
+  private final Object syncLock = new Object();
+  private long durable;
+
+  /** Creates a log that keeps nothing, for players whose state need not survive. */
+  StateLog() {
+    this(null, null, CHECKPOINT_RECORDS);
+  }
+
+  StateLog(Path path, Path snapshot) {
+    this(path, snapshot, CHECKPOINT_RECORDS);
+  }
+
+  /**
+   * Creates a log at the given path, compacted into the given snapshot every time the given
+   * number of records were logged. Nothing is read or written before {@link #recover}.
+   */
+  StateLog(Path path, Path snapshot, int checkpointRecords) {
+    this.path = path;
+    this.snapshot = snapshot;
+    this.checkpointRecords = checkpointRecords;
+  }
+
+  /** Returns the path of the log, or null if it keeps nothing. */
+  Path getPath() {
+    return path;
+  }
+
+  /**
+   * Hands the records of the snapshot and of the log to the handler, drops the torn tail of
+   * the log if any, and opens it for appending. Checkpoints then take the state to write
+   * from the given source.
+   *
+   * The snapshot is read in full and checked before any of its records is handed over. If
+   * it is corrupt, it and the log are moved aside with a {@code .corrupt} suffix, for
+   * inspection, and the log starts out empty, so the state is recovered either whole or
+   * not at all.
+   *
+   * @throws IOException if a file cannot be read, moved or written; nothing is kept then,
+   *     and the caller must not go on as if changes were
+   */
+  void recover(Handler replay, State source) throws IOException {
+    if (path == null) {
+      return;
+    }
+
+    long snapshotGeneration = 0;
+    if (Files.exists(snapshot)) {
+      List<Record> records = new ArrayList<>();
+      boolean whole;
+      try (Reader reader = new Reader(snapshot)) {
+        snapshotGeneration = reader.generation;
+        whole = reader.replay((operation, arguments) -> records.add(new Record(operation, arguments)));
+      } catch (CorruptException e) {
+        whole = false;
+      }
+
+      if (whole) {
+        for (Record record : records) {
+          replay.accept(record.operation, record.arguments);
+        }
+      } else {
+        Path snapshotAside = moveAside(snapshot);
+        moveAside(path);
+        snapshotGeneration = 0;
+        System.out.printf("State snapshot %s is corrupt, moved it aside to %s%n",
+            snapshot, snapshotAside);
+      }
+    }
+
+    long end = 0;
+    int replayed = 0;
+    if (Files.exists(path)) {
+      try (Reader reader = new Reader(path)) {
+        if (reader.generation == snapshotGeneration) {
+          reader.replay(replay);
+          end = reader.position;
+          replayed = reader.records;
+        }
+      } catch (IOException e) {
+        // A header torn while the log was created or emptied: it held no records
+      }
+    }
+
+    FileChannel opened = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      if (end == 0) {
+        reset(opened, snapshotGeneration);
+      } else {
+        opened.truncate(end);
+        opened.position(end);
+        opened.force(true);
+      }
+      syncDirectory(path);
+    } catch (IOException e) {
+      opened.close();
+      throw e;
+    }
+
+    synchronized (this) {
+      this.channel = opened;
+      this.state = source;
+      this.generation = snapshotGeneration;
+      this.records = replayed;
+    }
+  }
+
+  /**
+   * Starts a change to the state kept in the log. The change is then logged with
+   * {@link #append} and applied, or applied and undone if it could not be logged, and
+   * finished with {@link #end}, so that no checkpoint runs in between.
+   */
+  void begin() {
+    checkpointLock.readLock().lock();
+  }
+
+  /** Finishes a change, running a checkpoint if enough records were logged since the last. */
+  void end() {
+    checkpointLock.readLock().unlock();
+    if (isCheckpointDue()) {
+      try {
+        checkpoint();
+      } catch (IOException e) {
+        System.out.printf("Couldn't write state snapshot %s%n", snapshot);
+      }
+    }
+  }
+
+  /**
+   * Logs a change made since {@link #begin}, returning once it is on disk.
+   *
+   * @throws IOException if the record could not be written or synced, or an earlier one
+   *     could not; the change must then not be applied, or be undone
+   */
+  void append(byte operation, String... arguments) throws IOException {
+    if (channel == null) {
+      return;
+    }
+
+    ByteBuffer record = ByteBuffer.wrap(encode(operation, arguments));
+    long end;
+    synchronized (this) {
+      checkFailure();
+      try {
+        while (record.hasRemaining()) {
+          channel.write(record);
+        }
+      } catch (IOException e) {
+        failure = e;
+        throw e;
+      }
+      written += record.limit();
+      end = written;
+      records++;
+    }
+    sync(end);
+  }
+
+  /**
+   * Writes the current state to a new snapshot and empties the log. Waits for the changes
+   * in progress to finish, and holds off new ones meanwhile.
+   */
+  void checkpoint() throws IOException {
+    checkpointLock.writeLock().lock();
+    try {
+      if (channel == null) {
+        return;
+      }
+      long next = generation + 1;
+
+      Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+      try (FileOutputStream file = new FileOutputStream(temp.toFile());
+          BufferedOutputStream out = new BufferedOutputStream(file, 1 << 16)) {
+        out.write(header(next).array());
+        state.write((operation, arguments) -> out.write(encode(operation, arguments)));
+        out.flush();
+        file.getChannel().force(true);
+      }
+      Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      syncDirectory(snapshot);
+
+      // The snapshot is in place with the newer generation, so a crash from here on skips
+      // the old records whether or not they are gone yet
+      synchronized (this) {
+        reset(channel, next);
+        generation = next;
+        records = 0;
+        failure = null;
+      }
+    } finally {
+      checkpointLock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    checkpointLock.writeLock().lock();
+    try {
+      if (channel != null) {
+        channel.close();
+        channel = null;
+      }
+    } finally {
+      checkpointLock.writeLock().unlock();
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException("State log " + path + " failed earlier", failure);
+    }
+  }
+
+  private synchronized boolean isCheckpointDue() {
+    return channel != null && records >= checkpointRecords;
+  }
+
+  /**
+   * Waits until the log is on disk up to the given byte. If another thread is syncing, its
+   * fsync may already cover it; otherwise one fsync covers everything appended so far.
+   */
+  private void sync(long end) throws IOException {
+    synchronized (syncLock) {
+      if (durable >= end) {
+        return;
+      }
+      long target;
+      synchronized (this) {
+        checkFailure();
+        target = written;
+      }
+      try {
+        channel.force(false);
+      } catch (IOException e) {
+        synchronized (this) {
+          failure = e;
+        }
+        throw e;
+      }
+      durable = target;
+    }
+  }
+
+  /** Empties the log and gives it the generation, truncating first so no records survive. */
+  private static void reset(FileChannel channel, long generation) throws IOException {
+    channel.truncate(0);
+    ByteBuffer header = header(generation);
+    while (header.hasRemaining()) {
+      channel.write(header, header.position());
+    }
+    channel.position(HEADER);
+    channel.force(true);
+  }
+
+  private static ByteBuffer header(long generation) {
+    return ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+  }
+
+  private static byte[] encode(byte operation, String... arguments) {
+    byte[][] encoded = new byte[arguments.length][];
+    int length = 2;
+    for (int i = 0; i < arguments.length; i++) {
+      encoded[i] = arguments[i].getBytes(StandardCharsets.UTF_8);
+      length += Integer.BYTES + encoded[i].length;
+    }
+
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + length);
+    record.putInt(length).putInt(0).put(operation).put((byte) arguments.length);
+    for (byte[] argument : encoded) {
+      record.putInt(argument.length).put(argument);
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), RECORD_HEADER, length);
+    record.putInt(Integer.BYTES, (int) crc.getValue());
+    return record.array();
+  }
+
+  /** Renames the file, if it exists, with a {@code .corrupt} suffix and returns the new path. */
+  private static Path moveAside(Path file) throws IOException {
+    Path aside = file.resolveSibling(file.getFileName() + ".corrupt");
+    if (Files.exists(file)) {
+      Files.move(file, aside, StandardCopyOption.REPLACE_EXISTING);
+    }
+    return aside;
+  }
+
+  /** Makes a file created or renamed in the directory survive a crash, where supported. */
+  private static void syncDirectory(Path file) {
+    Path directory = file.toAbsolutePath().getParent();
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // Directories cannot be opened on every platform; the rename is durable there anyway
+    }
+  }
+
+  /** A record read from a file, held until the whole file is known to be intact. */
+  private static final class Record {
+
+    private final byte operation;
+    private final String[] arguments;
+
+    Record(byte operation, String[] arguments) {
+      this.operation = operation;
+      this.arguments = arguments;
+    }
+
+  }
+
+  /** Thrown when a file is not a state log of a supported version, e.g. was cut short. */
+  private static final class CorruptException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    CorruptException(String message) {
+      super(message);
+    }
+
+  }
+
+  /** Reads the records of a log or snapshot file. */
+  private static final class Reader implements Closeable {
+
+    private final DataInputStream in;
+    private final long size;
+    private final long generation;
+
+    // Where the records read so far end, and how many there were
+    private long position = HEADER;
+    private int records;
+
+    Reader(Path file) throws IOException {
+      this.size = Files.size(file);
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+      try {
+        if (in.readInt() != MAGIC) {
+          throw new CorruptException("Not a state log: " + file);
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+          throw new CorruptException("Unsupported state log version " + version);
+        }
+        this.generation = in.readLong();
+      } catch (EOFException e) {
+        in.close();
+        throw new CorruptException("Truncated state log header: " + file);
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+
+    /**
+     * Hands the records to the handler up to the end of the file, or up to the first torn or
+     * corrupt one. Returns true if the whole file was read.
+     */
+    boolean replay(Handler handler) throws IOException {
+      CRC32 crc = new CRC32();
+      while (position < size) {
+        byte[] payload;
+        try {
+          int length = in.readInt();
+          int checksum = in.readInt();
+          if (length < 2 || length > size - position - RECORD_HEADER) {
+            return false;
+          }
+          payload = new byte[length];
+          in.readFully(payload);
+          crc.reset();
+          crc.update(payload);
+          if ((int) crc.getValue() != checksum) {
+            return false;
+          }
+        } catch (EOFException e) {
+          return false;
+        }
+
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+        byte operation = record.readByte();
+        String[] arguments = new String[record.readUnsignedByte()];
+        for (int i = 0; i < arguments.length; i++) {
+          byte[] argument = new byte[record.readInt()];
+          record.readFully(argument);
+          arguments[i] = new String(argument, StandardCharsets.UTF_8);
+        }
+        handler.accept(operation, arguments);
+
+        position += RECORD_HEADER + payload.length;
+        records++;
+      }
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+  }
+
+}
@@ -0,0 +1,73 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns video tags into dense int ids, so that a tag shared by many videos is stored
+ * once and videos only keep an array of ids.
+ *
+ * Interning is thread-safe, as catalogs may be parsed on several threads at once.
+ */
+final class TagDictionary {
+
+  private static final TagDictionary GLOBAL = new TagDictionary();
+
+  private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+  // Written under the lock; the volatile write publishes the new entry to readers
+  private volatile String[] tags = new String[64];
+  private volatile String[] keys = new String[64];
+  private int size;
+
+  /** Returns the dictionary shared by all videos. */
+  static TagDictionary global() {
+    return GLOBAL;
+  }
+
+  /**
+   * Returns the id of the tag, assigning the next free id if the tag is new.
+   */
+  int intern(String tag) {
+    Integer id = ids.get(tag);
+    if (id != null) {
+      return id;
+    }
+
+    synchronized (this) {
+      id = ids.get(tag);
+      if (id != null) {
+        return id;
+      }
+
+      String[] current = tags;
+      String[] currentKeys = keys;
+      if (size == current.length) {
+        current = Arrays.copyOf(current, size * 2);
+        currentKeys = Arrays.copyOf(currentKeys, size * 2);
+      }
+      current[size] = tag;
+      currentKeys[size] = SearchKey.fold(tag);
+      keys = currentKeys;
+      tags = current;
+      ids.put(tag, size);
+      return size++;
+    }
+  }
+
+  /** Returns the number of distinct tags. */
+  synchronized int size() {
+    return size;
+  }
+
+  /** Returns the tag with the given id. */
+  String tag(int id) {
+    return tags[id];
+  }
+
+  /** Returns the case-folded tag with the given id, folded once when it was interned. */
+  String key(int id) {
+    return keys[id];
+  }
+
+}
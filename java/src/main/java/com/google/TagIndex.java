@@ -0,0 +1,40 @@
+package com.google;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An inverted index from case-folded tag to the videos of a catalog carrying it.
+ *
+ * Each posting list is an {@link IntBitmap} of title ranks (positions in the catalog's
+ * title order), so iterating a list, or the result of combining several, yields videos
+ * already sorted by title. Like the title index, it ignores flags.
+ */
+final class TagIndex {
+
+  private final Map<String, IntBitmap> postings;
+
+  TagIndex(VideoCatalog catalog) {
+    int[] order = catalog.getTitleOrder();
+    VideoStore store = catalog.getStore();
+
+    // Tags are folded once, when interned, however many videos carry them
+    TagDictionary dictionary = TagDictionary.global();
+
+    Map<String, IntBitmap.Builder> building = new HashMap<>();
+    for (int rank = 0; rank < order.length; rank++) {
+      for (int tagId : store.getTagIds(order[rank])) {
+        building.computeIfAbsent(dictionary.key(tagId), tag -> new IntBitmap.Builder()).add(rank);
+      }
+    }
+
+    this.postings = new HashMap<>(building.size() * 4 / 3 + 1);
+    building.forEach((tag, builder) -> this.postings.put(tag, builder.build()));
+  }
+
+  /** Returns the ranks of the videos carrying the already folded tag. */
+  IntBitmap get(String foldedTag) {
+    return postings.getOrDefault(foldedTag, IntBitmap.EMPTY);
+  }
+
+}
@@ -0,0 +1,229 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A boolean expression over video tags, such as {@code #cat AND #animal NOT #funny}.
+ *
+ * Tags are combined with {@code AND}, {@code OR} and {@code NOT} (case-insensitive), and
+ * grouped with parentheses. {@code AND} binds tighter than {@code OR}, {@code NOT} between
+ * two operands means "and not", and a leading {@code NOT} excludes from all videos. The
+ * expression is evaluated as bitmap operations over the posting lists of a
+ * {@link TagIndex}, cheapest first.
+ */
+final class TagQuery {
+
+  private final Node root;
+
+  private TagQuery(Node root) {
+    this.root = root;
+  }
+
+  /**
+   * Parses a tag expression. Throws an IllegalArgumentException if it is malformed.
+   */
+  static TagQuery parse(String expression) {
+    Parser parser = new Parser(tokenize(expression));
+    Node root = parser.or();
+    if (parser.position != parser.tokens.size()) {
+      throw new IllegalArgumentException("Unexpected " + parser.tokens.get(parser.position));
+    }
+    return new TagQuery(root);
+  }
+
+  /**
+   * Returns the title ranks of the videos of a catalog matching the expression, given the
+   * catalog's tag index and number of videos.
+   */
+  IntBitmap evaluate(TagIndex index, int videos) {
+    return root.evaluate(index, videos);
+  }
+
+  private static List<String> tokenize(String expression) {
+    List<String> tokens = new ArrayList<>();
+    StringBuilder token = new StringBuilder();
+    for (int i = 0; i <= expression.length(); i++) {
+      char c = i < expression.length() ? expression.charAt(i) : ' ';
+      if (Character.isWhitespace(c) || c == '(' || c == ')') {
+        if (token.length() > 0) {
+          tokens.add(token.toString());
+          token.setLength(0);
+        }
+        if (c == '(' || c == ')') {
+          tokens.add(String.valueOf(c));
+        }
+      } else {
+        token.append(c);
+      }
+    }
+    return tokens;
+  }
+
+  /** A recursive descent parser over the tokens of an expression. */
+  private static final class Parser {
+
+    private final List<String> tokens;
+    private int position;
+
+    private Parser(List<String> tokens) {
+      this.tokens = tokens;
+    }
+
+    /** or := and ("OR" and)* */
+    Node or() {
+      List<Node> operands = new ArrayList<>();
+      operands.add(and());
+      while (accept("OR")) {
+        operands.add(and());
+      }
+      return operands.size() == 1 ? operands.get(0) : new Or(operands);
+    }
+
+    /** and := ["NOT"] operand (("AND" ["NOT"] | "NOT") operand)* */
+    Node and() {
+      List<Node> included = new ArrayList<>();
+      List<Node> excluded = new ArrayList<>();
+      (accept("NOT") ? excluded : included).add(operand());
+      while (true) {
+        if (accept("AND")) {
+          (accept("NOT") ? excluded : included).add(operand());
+        } else if (accept("NOT")) {
+          excluded.add(operand());
+        } else {
+          break;
+        }
+      }
+      return included.size() == 1 && excluded.isEmpty()
+          ? included.get(0) : new And(included, excluded);
+    }
+
+    /** operand := tag | "(" or ")" */
+    Node operand() {
+      if (position == tokens.size()) {
+        throw new IllegalArgumentException("Missing tag at end of expression");
+      }
+      String token = tokens.get(position++);
+      if (token.equals("(")) {
+        Node node = or();
+        if (!accept(")")) {
+          throw new IllegalArgumentException("Missing closing parenthesis");
+        }
+        return node;
+      }
+      if (!token.startsWith("#") || token.length() == 1) {
+        throw new IllegalArgumentException("Expected a tag but got " + token);
+      }
+      return new Tag(SearchKey.fold(token));
+    }
+
+    private boolean accept(String expected) {
+      if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(expected)) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+  }
+
+  private interface Node {
+
+    IntBitmap evaluate(TagIndex index, int videos);
+
+  }
+
+  private static final class Tag implements Node {
+
+    private final String tag;
+
+    private Tag(String tag) {
+      this.tag = tag;
+    }
+
+    @Override
+    public IntBitmap evaluate(TagIndex index, int videos) {
+      return index.get(tag);
+    }
+
+  }
+
+  private static final class Or implements Node {
+
+    private final List<Node> operands;
+
+    private Or(List<Node> operands) {
+      this.operands = operands;
+    }
+
+    @Override
+    public IntBitmap evaluate(TagIndex index, int videos) {
+      List<IntBitmap> bitmaps = evaluateAll(operands, index, videos);
+      // Merging small sets first keeps the intermediate results small
+      bitmaps.sort(Comparator.comparingInt(IntBitmap::cardinality));
+      IntBitmap result = IntBitmap.EMPTY;
+      for (IntBitmap bitmap : bitmaps) {
+        result = result.or(bitmap);
+      }
+      return result;
+    }
+
+  }
+
+  private static final class And implements Node {
+
+    private final List<Node> included;
+    private final List<Node> excluded;
+
+    private And(List<Node> included, List<Node> excluded) {
+      this.included = included;
+      this.excluded = excluded;
+    }
+
+    @Override
+    public IntBitmap evaluate(TagIndex index, int videos) {
+      IntBitmap result;
+      if (included.isEmpty()) {
+        result = all(videos);
+      } else {
+        // Start from the rarest operand, so every intersection is at most that large
+        List<IntBitmap> bitmaps = evaluateAll(included, index, videos);
+        bitmaps.sort(Comparator.comparingInt(IntBitmap::cardinality));
+        result = bitmaps.get(0);
+        for (int i = 1; i < bitmaps.size() && !result.isEmpty(); i++) {
+          result = result.and(bitmaps.get(i));
+        }
+      }
+
+      if (result.isEmpty()) {
+        return result;
+      }
+      // Subtract the largest exclusions first, as they empty the result soonest
+      List<IntBitmap> bitmaps = evaluateAll(excluded, index, videos);
+      bitmaps.sort((a, b) -> Integer.compare(b.cardinality(), a.cardinality()));
+      for (int i = 0; i < bitmaps.size() && !result.isEmpty(); i++) {
+        result = result.andNot(bitmaps.get(i));
+      }
+      return result;
+    }
+
+    private static IntBitmap all(int videos) {
+      IntBitmap.Builder builder = new IntBitmap.Builder();
+      for (int rank = 0; rank < videos; rank++) {
+        builder.add(rank);
+      }
+      return builder.build();
+    }
+
+  }
+
+  private static List<IntBitmap> evaluateAll(List<Node> nodes, TagIndex index, int videos) {
+    List<IntBitmap> bitmaps = new ArrayList<>(nodes.size());
+    for (Node node : nodes) {
+      bitmaps.add(node.evaluate(index, videos));
+    }
+    return bitmaps;
+  }
+
+}
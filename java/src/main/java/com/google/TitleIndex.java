@@ -0,0 +1,219 @@
+package com.google;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A trigram inverted index over the case-folded titles of a catalog, used to find the
+ * videos whose title contains a search term without scanning the whole catalog.
+ *
+ * Postings hold title ranks (positions in the catalog's title order) rather than
+ * ordinals, so intersecting them yields matches already sorted by title. Intersected
+ * candidates are then checked for the actual substring. The index ignores flags, which
+ * are applied to the results at query time, so flagging never invalidates it.
+ *
+ * The postings of all trigrams are laid out back to back in one int buffer, with the
+ * sorted trigrams and the start of each one's postings in two arrays beside it, so the
+ * index costs an int per posting and no object per trigram. For off-heap catalogs the
+ * buffer is direct, leaving only the trigram arrays on the Java heap.
+ */
+final class TitleIndex {
+
+  private static final int[] NONE = new int[0];
+
+  private final VideoCatalog catalog;
+  private final int[] order;
+  private final long[] trigrams;
+  private final int[] starts;
+  private final IntBuffer postings;
+
+  TitleIndex(VideoCatalog catalog) {
+    this.catalog = catalog;
+    this.order = catalog.getTitleOrder();
+
+    // Count the titles of each trigram first, so the postings can be written in place
+    Map<Long, int[]> counts = new HashMap<>();
+    int total = 0;
+    for (int rank = 0; rank < order.length; rank++) {
+      String title = SearchKey.decode(catalog.getStore().getTitleKey(order[rank]));
+      for (int i = 0; i + 3 <= title.length(); i++) {
+        // Holds the number of titles and the last rank counted, so a title counts once
+        int[] count = counts.computeIfAbsent(trigram(title, i), key -> new int[] {0, -1});
+        if (count[1] != rank) {
+          count[0]++;
+          count[1] = rank;
+          total++;
+        }
+      }
+    }
+
+    this.trigrams = counts.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+    this.starts = new int[trigrams.length + 1];
+    for (int i = 0; i < trigrams.length; i++) {
+      starts[i + 1] = starts[i] + counts.get(trigrams[i])[0];
+    }
+
+    this.postings = catalog.getStore() instanceof OffHeapVideoStore
+        ? ByteBuffer.allocateDirect(total * Integer.BYTES).asIntBuffer()
+        : IntBuffer.allocate(total);
+    int[] next = Arrays.copyOf(starts, trigrams.length);
+    int[] last = new int[trigrams.length];
+    Arrays.fill(last, -1);
+    for (int rank = 0; rank < order.length; rank++) {
+      String title = SearchKey.decode(catalog.getStore().getTitleKey(order[rank]));
+      for (int i = 0; i + 3 <= title.length(); i++) {
+        int index = Arrays.binarySearch(trigrams, trigram(title, i));
+        if (last[index] != rank) {
+          last[index] = rank;
+          postings.put(next[index]++, rank);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the ordinals of the videos whose title contains the already folded term, in
+   * title order. Flagged videos are included.
+   */
+  int[] search(String foldedTerm) {
+    IntUnaryOperator matches = matcher(foldedTerm);
+    int count = 0;
+    int[] result = new int[16];
+    for (int rank = matches.applyAsInt(0); rank >= 0; rank = matches.applyAsInt(rank + 1)) {
+      if (count == result.length) {
+        result = Arrays.copyOf(result, count * 2);
+      }
+      result[count++] = order[rank];
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Returns a function giving the first rank not smaller than its argument whose title
+   * contains the already folded term, or -1 if there is none. Titles are only checked as
+   * far as the caller asks, so a page of results costs about as much as its size.
+   * Checking compares the folded title keys of the store, so it allocates nothing.
+   */
+  IntUnaryOperator matcher(String foldedTerm) {
+    int[] candidates = foldedTerm.length() < 3 ? null : candidates(foldedTerm);
+    byte[] term = foldedTerm.getBytes(StandardCharsets.UTF_8);
+    VideoStore store = catalog.getStore();
+
+    return from -> {
+      int index = from;
+      if (candidates != null) {
+        index = Arrays.binarySearch(candidates, from);
+        index = index >= 0 ? index : -index - 1;
+      }
+
+      int total = candidates != null ? candidates.length : order.length;
+      for (; index < total; index++) {
+        int rank = candidates != null ? candidates[index] : index;
+        if (store.titleKeyContains(order[rank], term)) {
+          return rank;
+        }
+      }
+      return -1;
+    };
+  }
+
+  /**
+   * Returns the ranks of the titles that contain every trigram of the term, ascending.
+   */
+  private int[] candidates(String foldedTerm) {
+    int count = foldedTerm.length() - 2;
+    int[] lists = new int[count];
+    for (int i = 0; i < count; i++) {
+      int index = Arrays.binarySearch(trigrams, trigram(foldedTerm, i));
+      if (index < 0) {
+        return NONE;
+      }
+      lists[i] = index;
+    }
+
+    // Intersect the shortest lists first so the candidate set shrinks as fast as possible
+    for (int i = 1; i < count; i++) {
+      int list = lists[i];
+      int j = i;
+      for (; j > 0 && length(lists[j - 1]) > length(list); j--) {
+        lists[j] = lists[j - 1];
+      }
+      lists[j] = list;
+    }
+
+    int[] result = new int[length(lists[0])];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = postings.get(starts[lists[0]] + i);
+    }
+    for (int i = 1; i < count && result.length > 0; i++) {
+      if (lists[i] != lists[i - 1]) {
+        result = intersect(result, postings, starts[lists[i]], starts[lists[i] + 1]);
+      }
+    }
+    return result;
+  }
+
+  private int length(int trigram) {
+    return starts[trigram + 1] - starts[trigram];
+  }
+
+  /**
+   * Intersects a short sorted list with a longer one, galloping through the longer one.
+   */
+  static int[] intersect(int[] small, int[] large) {
+    return intersect(small, IntBuffer.wrap(large), 0, large.length);
+  }
+
+  /**
+   * Intersects a short sorted list with the longer one held in {@code large[from, to)},
+   * galloping through the longer one.
+   */
+  private static int[] intersect(int[] small, IntBuffer large, int from, int to) {
+    int[] result = new int[small.length];
+    int count = 0;
+
+    for (int value : small) {
+      // Gallop to a range that may hold the value, then binary search inside it
+      int step = 1;
+      int high = from;
+      while (high < to && large.get(high) < value) {
+        from = high + 1;
+        high += step;
+        step <<= 1;
+      }
+      int low = from;
+      high = Math.min(high + 1, to);
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (large.get(middle) < value) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      if (low < to && large.get(low) == value) {
+        result[count++] = value;
+        from = low + 1;
+      } else {
+        from = low;
+      }
+      if (from >= to) {
+        break;
+      }
+    }
+
+    return Arrays.copyOf(result, count);
+  }
+
+  private static long trigram(String value, int index) {
+    return ((long) value.charAt(index) << 32)
+        | ((long) value.charAt(index + 1) << 16)
+        | value.charAt(index + 2);
+  }
+
+}
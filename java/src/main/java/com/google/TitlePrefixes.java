@@ -0,0 +1,68 @@
+package com.google;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An immutable prefix index over the case-folded titles of a catalog, for autocompletion.
+ *
+ * The videos are sorted by folded title, so the videos whose title starts with a given
+ * prefix form one contiguous range, found by two binary searches over the folded title
+ * keys of the store. The index is that sorted array of ordinals and nothing else, an int
+ * per video, and the keys are compared in place, so building it decodes no title.
+ */
+final class TitlePrefixes {
+
+  private final VideoStore store;
+
+  // Ordinals sorted by folded title, then title, then id
+  private final int[] entries;
+
+  TitlePrefixes(VideoCatalog catalog) {
+    this.store = catalog.getStore();
+    // Sorting the title order stably keeps title then id as the tie breaks
+    int[] sorted = catalog.getTitleOrder().clone();
+    VideoCatalog.sort(sorted, store::compareTitleKeys);
+    this.entries = sorted;
+  }
+
+  /**
+   * Returns the ordinals of the videos whose folded title starts with the already folded
+   * prefix, in order of folded title, at most {@code limit} of them. Flagged videos are
+   * skipped.
+   */
+  int[] complete(String foldedPrefix, int limit, VideoFlags flags) {
+    byte[] prefix = foldedPrefix.getBytes(StandardCharsets.UTF_8);
+    int from = bound(prefix, false);
+    int to = bound(prefix, true);
+
+    int[] result = new int[Math.min(limit, to - from)];
+    int count = 0;
+    for (int i = from; i < to && count < result.length; i++) {
+      if (!flags.isFlagged(entries[i])) {
+        result[count++] = entries[i];
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Returns the first entry whose title does not come before the prefix or, with
+   * {@code after}, the first one that neither comes before nor starts with it.
+   */
+  private int bound(byte[] prefix, boolean after) {
+    int from = 0;
+    int to = entries.length;
+    while (from < to) {
+      int middle = (from + to) >>> 1;
+      int result = SearchKey.compareToPrefix(store.getTitleKey(entries[middle]), prefix);
+      if (result < 0 || (after && result == 0)) {
+        from = middle + 1;
+      } else {
+        to = middle;
+      }
+    }
+    return from;
+  }
+
+}
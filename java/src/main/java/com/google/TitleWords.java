@@ -0,0 +1,182 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The vocabulary of the case-folded words of the titles of a catalog, with the title
+ * ranks (positions in the title order) of the videos using each word.
+ *
+ * The words are also kept in a BK-tree, a tree in which the children of a word are keyed
+ * by their edit distance to it. The triangle inequality then lets a lookup for the words
+ * close to a misspelled one skip whole subtrees, so a typo-tolerant search compares the
+ * query with a small part of the vocabulary instead of with every title.
+ */
+final class TitleWords {
+
+  private static final int NONE = -1;
+
+  private final String[] words;
+  private final Map<String, Integer> ids;
+  private final IntBitmap[] postings;
+
+  // BK-tree: the children of word i are its first child and that child's siblings
+  private final int[] firstChild;
+  private final int[] nextSibling;
+  private final int[] parentDistance;
+
+  TitleWords(VideoCatalog catalog) {
+    int[] order = catalog.getTitleOrder();
+    Map<String, Integer> ids = new HashMap<>();
+    List<String> words = new ArrayList<>();
+    List<IntBitmap.Builder> building = new ArrayList<>();
+
+    for (int rank = 0; rank < order.length; rank++) {
+      for (String word : split(SearchKey.decode(catalog.getStore().getTitleKey(order[rank])))) {
+        Integer id = ids.get(word);
+        if (id == null) {
+          id = words.size();
+          ids.put(word, id);
+          words.add(word);
+          building.add(new IntBitmap.Builder());
+        }
+        building.get(id).add(rank);
+      }
+    }
+
+    this.words = words.toArray(new String[0]);
+    this.ids = ids;
+    this.postings = new IntBitmap[this.words.length];
+    for (int id = 0; id < postings.length; id++) {
+      postings[id] = building.get(id).build();
+    }
+
+    this.firstChild = new int[this.words.length];
+    this.nextSibling = new int[this.words.length];
+    this.parentDistance = new int[this.words.length];
+    Arrays.fill(firstChild, NONE);
+    Arrays.fill(nextSibling, NONE);
+    for (int id = 1; id < this.words.length; id++) {
+      insert(id);
+    }
+  }
+
+  /** Splits a folded title or query into words: runs of letters and digits. */
+  static List<String> split(String folded) {
+    List<String> words = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= folded.length(); i++) {
+      boolean letter = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+      if (letter && start < 0) {
+        start = i;
+      } else if (!letter && start >= 0) {
+        words.add(folded.substring(start, i));
+        start = -1;
+      }
+    }
+    return words;
+  }
+
+  /** Returns the number of distinct words. */
+  int size() {
+    return words.length;
+  }
+
+  /** Returns the id of the word, or -1 if no title uses it. */
+  int idOf(String word) {
+    Integer id = ids.get(word);
+    return id != null ? id : NONE;
+  }
+
+  String word(int id) {
+    return words[id];
+  }
+
+  /** Returns the title ranks of the videos using the word. */
+  IntBitmap postings(int id) {
+    return postings[id];
+  }
+
+  /**
+   * Returns, for every distance from 0 to {@code maxDistance}, the ranks of the titles whose
+   * closest word to the given one is at that edit distance.
+   */
+  IntBitmap[] near(String word, int maxDistance) {
+    IntBitmap[] byDistance = new IntBitmap[maxDistance + 1];
+    Arrays.fill(byDistance, IntBitmap.EMPTY);
+    if (words.length == 0) {
+      return byDistance;
+    }
+
+    int[] stack = new int[16];
+    int size = 0;
+    stack[size++] = 0;
+    while (size > 0) {
+      int id = stack[--size];
+      int distance = distance(word, words[id]);
+      if (distance <= maxDistance) {
+        byDistance[distance] = byDistance[distance].or(postings[id]);
+      }
+      // Only children whose distance to this word is within reach can hold matches
+      for (int child = firstChild[id]; child != NONE; child = nextSibling[child]) {
+        if (Math.abs(parentDistance[child] - distance) <= maxDistance) {
+          if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
+          }
+          stack[size++] = child;
+        }
+      }
+    }
+
+    // Keep each title at the distance of its closest word only
+    IntBitmap closer = IntBitmap.EMPTY;
+    for (int distance = 0; distance <= maxDistance; distance++) {
+      IntBitmap exact = byDistance[distance].andNot(closer);
+      closer = closer.or(byDistance[distance]);
+      byDistance[distance] = exact;
+    }
+    return byDistance;
+  }
+
+  private void insert(int id) {
+    int node = 0;
+    while (true) {
+      int distance = distance(words[id], words[node]);
+      int child = firstChild[node];
+      while (child != NONE && parentDistance[child] != distance) {
+        child = nextSibling[child];
+      }
+      if (child == NONE) {
+        parentDistance[id] = distance;
+        nextSibling[id] = firstChild[node];
+        firstChild[node] = id;
+        return;
+      }
+      node = child;
+    }
+  }
+
+  /** Returns the Levenshtein distance between two words. */
+  static int distance(String a, String b) {
+    int[] previous = new int[b.length() + 1];
+    int[] current = new int[b.length() + 1];
+    for (int j = 0; j <= b.length(); j++) {
+      previous[j] = j;
+    }
+    for (int i = 1; i <= a.length(); i++) {
+      current[0] = i;
+      for (int j = 1; j <= b.length(); j++) {
+        int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+        current[j] = Math.min(Math.min(current[j - 1], previous[j]) + 1, previous[j - 1] + cost);
+      }
+      int[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return previous[b.length()];
+  }
+
+}
@@ -11,14 +11,21 @@ class Video implements Comparable<Video> {
    * ------------
    */
 
+  private final int ordinal;
   private final String title;
   private final String videoId;
-  private final List<String> tags;
 
-  private String flagReason = "Not supplied";
+  // The case-folded title as UTF-8, computed once when the video is added
+  private final byte[] titleKey;
 
-  private boolean paused;
-  private boolean flagged;
+  // Ids in the global tag dictionary, in catalog order
+  private final int[] tagIds;
+
+  // Derived lazily; racing threads compute the same value
+  private String tagsString;
+
+  // Shared by every video of the library, so flags survive views and reloads
+  private final VideoFlags flags;
 
   /** 
    * -------------
@@ -26,24 +33,42 @@ class Video implements Comparable<Video> {
    * -------------
    */
 
-  Video(String title, String videoId, List<String> tags) {
+  Video(int ordinal, String title, String videoId, int[] tagIds, VideoFlags flags) {
+    this(ordinal, title, SearchKey.of(title), videoId, tagIds, flags);
+  }
+
+  Video(int ordinal, String title, byte[] titleKey, String videoId, int[] tagIds,
+      VideoFlags flags) {
+    this.ordinal = ordinal;
     this.title = title;
+    this.titleKey = titleKey;
     this.videoId = videoId;
-    this.tags = Collections.unmodifiableList(tags);
-    this.paused = false;
+    this.tagIds = tagIds;
+    this.flags = flags;
   }
 
+
   /** 
    * ---------
    *  METHODS
    * ---------
    */
 
+  /** Returns the ordinal of the video in its library. */
+  int getOrdinal() {
+    return ordinal;
+  }
+
   /** Returns the title of the video. */
   String getTitle() {
     return title;
   }
 
+  /** Returns the case-folded title of the video as UTF-8. Do not modify. */
+  byte[] getTitleKey() {
+    return titleKey;
+  }
+
   /** Returns the video id of the video. */
   String getVideoId() {
     return videoId;
@@ -51,69 +76,64 @@ class Video implements Comparable<Video> {
 
   /** Returns a readonly collection of the tags of the video. */
   List<String> getTags() {
-    return tags;
+    return new AbstractList<>() {
+      @Override
+      public String get(int index) {
+        return TagDictionary.global().tag(tagIds[index]);
+      }
+
+      @Override
+      public int size() {
+        return tagIds.length;
+      }
+    };
   }
 
-   /** Returns the collection of a tags as a formatted String. */
-   String getTagsString() {
-    return Arrays.toString(this.getTags().toArray()).replaceAll(",", "");
+  /** Returns the ids of the tags of the video in the global tag dictionary. Do not modify. */
+  int[] getTagIds() {
+    return tagIds;
   }
 
-  public void pause() {
-    this.paused = true;
-  }
-  
-  public void resume() {
-    this.paused = false;
+  /** Returns true if the video carries the already folded tag. */
+  boolean hasTagKey(String foldedTag) {
+    TagDictionary dictionary = TagDictionary.global();
+    for (int tagId : tagIds) {
+      if (dictionary.key(tagId).equals(foldedTag)) {
+        return true;
+      }
+    }
+    return false;
   }
 
-  public boolean flag(String reason) {
-
-    if (!flagged) {
-
-      flagged = true;
-      flagReason = reason;
-
-    } else {
-
-      return false;
-
+   /** Returns the collection of a tags as a formatted String. */
+   String getTagsString() {
+    String formatted = tagsString;
+    if (formatted == null) {
+      StringJoiner joiner = new StringJoiner(" ", "[", "]");
+      for (int tagId : tagIds) {
+        joiner.add(TagDictionary.global().tag(tagId));
+      }
+      formatted = joiner.toString();
+      tagsString = formatted;
     }
-    
-    return true;
+    return formatted;
+  }
 
+  public boolean flag(String reason) {
+    return flags.flag(ordinal, reason);
   }
 
   public boolean unflag() {
-
-    if (flagged) {
-
-      flagged = false;
-      flagReason = "Not supplied";
-
-    } else {
-
-      return false;
-
-    }
-    
-    return true;
-
+    return flags.unflag(ordinal);
   }
 
   public String getFlagReason() {
-      return flagReason;
+      String reason = flags.getReason(ordinal);
+      return reason != null ? reason : "Not supplied";
   }
 
   public boolean isFlagged() {
-      return flagged;
-  }
-
-  /** 
-   * @return boolean
-   */
-  public boolean isPaused() {
-      return paused;
+      return flags.isFlagged(ordinal);
   }
 
   /** 
@@ -132,25 +152,29 @@ class Video implements Comparable<Video> {
       );
 
     }
-    
-    if (this.isPaused()) { // Check that the video is paused
 
-      return String.format("%s (%s) %s - PAUSED", 
-        this.getTitle(), 
-        this.getVideoId(),
-        this.getTagsString()
-      );
+    return String.format("%s (%s) %s", 
+      this.getTitle(), 
+      this.getVideoId(),
+      this.getTagsString()
+    );
 
-    } else {
+  }
 
-      return String.format("%s (%s) %s", 
-        this.getTitle(), 
-        this.getVideoId(),
-        this.getTagsString()
-      );
+  /** 
+   * Videos are equal if they have the same id, so views of the same video are equal.
+   * 
+   * @param o
+   * @return boolean
+   */
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof Video && videoId.equals(((Video) o).videoId);
+  }
 
-    }
-    
+  @Override
+  public int hashCode() {
+    return videoId.hashCode();
   }
 
   
@@ -0,0 +1,409 @@
+package com.google;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * One immutable version of the video catalog: the stored videos and the index from video
+ * id to ordinal. {@link VideoLibrary} publishes a new version on every reload, so readers
+ * holding a catalog always see a consistent set of videos.
+ */
+final class VideoCatalog {
+
+  private final VideoStore store;
+  private final VideoIdIndex ordinals;
+
+  // Derived on first use, so catalogs only built to be compared on reload never pay for them
+  private volatile int[] titleOrder;
+  private volatile int[] ranks;
+  private volatile TitleIndex titleIndex;
+  private volatile TagIndex tagIndex;
+  private volatile TitlePrefixes titlePrefixes;
+  private volatile TitleWords titleWords;
+  private volatile RankedIndex rankedIndex;
+  private volatile FlaggedRanks flaggedRanks;
+
+  private VideoCatalog(VideoStore store, VideoIdIndex ordinals) {
+    this.store = store;
+    this.ordinals = ordinals;
+  }
+
+  /** Returns the number of videos in the catalog. */
+  int size() {
+    return ordinals.size();
+  }
+
+  /** Returns the number of ordinals, including those of removed videos. */
+  int ordinalCount() {
+    return store.size();
+  }
+
+  VideoStore getStore() {
+    return store;
+  }
+
+  /** Returns the ordinal of the video with the given id, or -1 if there is none. */
+  int ordinalOf(String videoId) {
+    return ordinals.get(videoId);
+  }
+
+  /** Returns the video with the given id, or null if there is none. */
+  Video getVideo(String videoId) {
+    int ordinal = ordinalOf(videoId);
+    return ordinal >= 0 ? store.getVideo(ordinal) : null;
+  }
+
+  /** Returns the video with the given ordinal, or null if it was removed. */
+  Video getVideo(int ordinal) {
+    return store.getVideo(ordinal);
+  }
+
+  /**
+   * Returns the ordinals of the videos sorted by title, then by id, which is the order in
+   * which videos are listed. The returned array must not be modified.
+   */
+  int[] getTitleOrder() {
+    int[] order = titleOrder;
+    if (order == null) {
+      synchronized (this) {
+        order = titleOrder;
+        if (order == null) {
+          order = sortByTitle();
+          titleOrder = order;
+        }
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Returns the videos of the catalog sorted by title, then by id. The list is a view over
+   * the title order: it does not copy the catalog, and getting a video is constant time.
+   */
+  List<Video> getVideosByTitle() {
+    return new VideosByTitle(getTitleOrder());
+  }
+
+  /**
+   * Returns the rank of the first video that comes after the given title and id in the
+   * title order, whether or not that video is still in the catalog.
+   */
+  int rankAfter(String title, String videoId) {
+    int[] order = getTitleOrder();
+    int low = 0;
+    int high = order.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      int result = store.getTitle(order[middle]).compareTo(title);
+      if (result == 0) {
+        result = store.getVideoId(order[middle]).compareTo(videoId);
+      }
+      if (result <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /** Returns the position of every ordinal in the title order, or -1 for removed ones. */
+  int[] getRanks() {
+    int[] result = ranks;
+    if (result == null) {
+      int[] order = getTitleOrder();
+      result = new int[store.size()];
+      Arrays.fill(result, -1);
+      for (int rank = 0; rank < order.length; rank++) {
+        result[order[rank]] = rank;
+      }
+      ranks = result;
+    }
+    return result;
+  }
+
+  /** Returns the index used to search the titles of this catalog. */
+  TitleIndex getTitleIndex() {
+    TitleIndex index = titleIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = titleIndex;
+        if (index == null) {
+          index = new TitleIndex(this);
+          titleIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /** Returns the index used to search the tags of this catalog. */
+  TagIndex getTagIndex() {
+    TagIndex index = tagIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = tagIndex;
+        if (index == null) {
+          index = new TagIndex(this);
+          tagIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /** Returns the index used to complete title prefixes in this catalog. */
+  TitlePrefixes getTitlePrefixes() {
+    TitlePrefixes prefixes = titlePrefixes;
+    if (prefixes == null) {
+      synchronized (this) {
+        prefixes = titlePrefixes;
+        if (prefixes == null) {
+          prefixes = new TitlePrefixes(this);
+          titlePrefixes = prefixes;
+        }
+      }
+    }
+    return prefixes;
+  }
+
+  /** Returns the words of the titles of this catalog. */
+  TitleWords getTitleWords() {
+    TitleWords vocabulary = titleWords;
+    if (vocabulary == null) {
+      synchronized (this) {
+        vocabulary = titleWords;
+        if (vocabulary == null) {
+          vocabulary = new TitleWords(this);
+          titleWords = vocabulary;
+        }
+      }
+    }
+    return vocabulary;
+  }
+
+  /** Returns the index used to rank searches of this catalog by relevance. */
+  RankedIndex getRankedIndex() {
+    RankedIndex index = rankedIndex;
+    if (index == null) {
+      synchronized (this) {
+        index = rankedIndex;
+        if (index == null) {
+          index = new RankedIndex(this);
+          rankedIndex = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the title ranks of the flagged videos of this catalog, to subtract from index
+   * results. It is rebuilt only after the flags change.
+   */
+  IntBitmap getFlaggedRanks(VideoFlags flags) {
+    FlaggedRanks cached = flaggedRanks;
+    long version = flags.version();
+    if (cached != null && cached.version == version) {
+      return cached.ranks;
+    }
+
+    int[] ranks = getRanks();
+    int[] flagged = flags.flaggedOrdinals();
+    int count = 0;
+    for (int ordinal : flagged) {
+      // Flags may name ordinals this catalog does not have, e.g. added by a later reload
+      if (ordinal < ranks.length && ranks[ordinal] >= 0) {
+        flagged[count++] = ranks[ordinal];
+      }
+    }
+    flagged = Arrays.copyOf(flagged, count);
+    Arrays.sort(flagged);
+
+    IntBitmap result = IntBitmap.of(flagged);
+    flaggedRanks = new FlaggedRanks(version, result);
+    return result;
+  }
+
+  private int[] sortByTitle() {
+    // Compared in place through the store, so that an off-heap catalog is not decoded
+    int[] order = new int[size()];
+    int count = 0;
+    for (int ordinal = 0; ordinal < store.size(); ordinal++) {
+      if (store.getVideoId(ordinal) != null) {
+        order[count++] = ordinal;
+      }
+    }
+
+    mergeSort(order, order.clone(), 0, count, store::compareByTitle);
+    return order;
+  }
+
+  /**
+   * Derives the title order of this catalog from that of the catalog it was built from,
+   * given the ordinals added, changed or removed since: the untouched ordinals keep their
+   * relative order, and the touched ones still present are sorted and merged in.
+   */
+  private int[] mergeTitleOrder(int[] baseOrder, BitSet touched) {
+    IntBinaryOperator comparator = store::compareByTitle;
+
+    int[] fresh = touched.stream().filter(ordinal -> store.getVideoId(ordinal) != null).toArray();
+    sort(fresh, comparator);
+
+    int[] kept = new int[baseOrder.length];
+    int keptCount = 0;
+    for (int ordinal : baseOrder) {
+      if (!touched.get(ordinal)) {
+        kept[keptCount++] = ordinal;
+      }
+    }
+
+    // Binary search the place of each fresh video, so the untouched ones are only copied
+    int[] order = new int[keptCount + fresh.length];
+    int from = 0;
+    int count = 0;
+    for (int ordinal : fresh) {
+      int low = from;
+      int high = keptCount;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (comparator.applyAsInt(kept[middle], ordinal) <= 0) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      System.arraycopy(kept, from, order, count, low - from);
+      count += low - from;
+      order[count++] = ordinal;
+      from = low;
+    }
+    System.arraycopy(kept, from, order, count, keptCount - from);
+    return order;
+  }
+
+  /** Sorts ordinals with a stable merge sort, by the given comparison of two ordinals. */
+  static void sort(int[] ordinals, IntBinaryOperator comparator) {
+    mergeSort(ordinals, ordinals.clone(), 0, ordinals.length, comparator);
+  }
+
+  /** Sorts {@code order[from, to)}, with {@code buffer} holding the same values. */
+  private static void mergeSort(
+      int[] order, int[] buffer, int from, int to, IntBinaryOperator comparator) {
+    if (to - from < 2) {
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    mergeSort(buffer, order, from, middle, comparator);
+    mergeSort(buffer, order, middle, to, comparator);
+
+    for (int i = from, left = from, right = middle; i < to; i++) {
+      if (right >= to || (left < middle
+          && comparator.applyAsInt(buffer[left], buffer[right]) <= 0)) {
+        order[i] = buffer[left++];
+      } else {
+        order[i] = buffer[right++];
+      }
+    }
+  }
+
+  /** Returns a builder starting from the contents of this catalog. */
+  Builder toBuilder() {
+    return new Builder(store.toBuilder(), ordinals.copy(), this);
+  }
+
+  static Builder builder(VideoStore.Builder store) {
+    return new Builder(store, new VideoIdIndex(), null);
+  }
+
+  private final class VideosByTitle extends AbstractList<Video> implements RandomAccess {
+
+    private final int[] order;
+
+    private VideosByTitle(int[] order) {
+      this.order = order;
+    }
+
+    @Override
+    public Video get(int index) {
+      return store.getVideo(order[index]);
+    }
+
+    @Override
+    public int size() {
+      return order.length;
+    }
+
+  }
+
+  /** The flagged ranks as of one version of the flags. */
+  private static final class FlaggedRanks {
+
+    private final long version;
+    private final IntBitmap ranks;
+
+    private FlaggedRanks(long version, IntBitmap ranks) {
+      this.version = version;
+      this.ranks = ranks;
+    }
+
+  }
+
+  /**
+   * Builds a catalog. Adding a video with an id that is already present replaces it in
+   * place, so the last occurrence of an id wins and keeps the first one's ordinal.
+   */
+  static final class Builder implements VideoSink {
+
+    private final VideoStore.Builder store;
+    private final VideoIdIndex ordinals;
+
+    // The catalog this one starts from and the ordinals changed since, if any
+    private final VideoCatalog base;
+    private final BitSet touched = new BitSet();
+
+    private Builder(VideoStore.Builder store, VideoIdIndex ordinals, VideoCatalog base) {
+      this.store = store;
+      this.ordinals = ordinals;
+      this.base = base;
+    }
+
+    @Override
+    public void accept(String title, String videoId, int[] tagIds) {
+      int ordinal = ordinals.get(videoId);
+      if (ordinal >= 0) {
+        store.set(ordinal, title, videoId, tagIds);
+      } else {
+        ordinal = store.add(title, videoId, tagIds);
+        ordinals.put(videoId, ordinal);
+      }
+      touched.set(ordinal);
+    }
+
+    /** Removes the video with the given id and returns its ordinal, or -1 if absent. */
+    int remove(String videoId) {
+      int ordinal = ordinals.remove(videoId);
+      if (ordinal >= 0) {
+        store.remove(ordinal);
+        touched.set(ordinal);
+      }
+      return ordinal;
+    }
+
+    VideoCatalog build() {
+      VideoCatalog catalog = new VideoCatalog(store.build(), ordinals);
+      // Keep the title order up to date rather than sorting the whole catalog again
+      int[] baseOrder = base != null ? base.titleOrder : null;
+      if (baseOrder != null) {
+        catalog.titleOrder = catalog.mergeTitleOrder(baseOrder, touched);
+      }
+      return catalog;
+    }
+
+  }
+
+}
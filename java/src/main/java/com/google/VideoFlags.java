@@ -0,0 +1,82 @@
+package com.google;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * The moderation flags of the videos of a library, by video ordinal.
+ *
+ * Flags live here rather than on the video objects so that they survive catalog reloads
+ * and apply to every view of a video. Only flagged videos take up space.
+ */
+final class VideoFlags {
+
+  private final ConcurrentHashMap<Integer, String> reasons = new ConcurrentHashMap<>();
+
+  // Bumped on every change, so that views derived from the flags know when to refresh
+  private final AtomicLong version = new AtomicLong();
+
+  private final CopyOnWriteArrayList<IntConsumer> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Registers a listener called with the ordinal of every video flagged or unflagged,
+   * after the change and the version bump.
+   */
+  void addListener(IntConsumer listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Flags the video with the given reason. Returns false if it was already flagged.
+   */
+  boolean flag(int ordinal, String reason) {
+    if (reasons.putIfAbsent(ordinal, reason) != null) {
+      return false;
+    }
+    changed(ordinal);
+    return true;
+  }
+
+  /**
+   * Removes the flag of the video. Returns false if it was not flagged.
+   */
+  boolean unflag(int ordinal) {
+    if (reasons.remove(ordinal) == null) {
+      return false;
+    }
+    changed(ordinal);
+    return true;
+  }
+
+  private void changed(int ordinal) {
+    version.incrementAndGet();
+    for (IntConsumer listener : listeners) {
+      listener.accept(ordinal);
+    }
+  }
+
+  boolean isFlagged(int ordinal) {
+    return reasons.containsKey(ordinal);
+  }
+
+  /**
+   * Returns a number that changes whenever a video is flagged or unflagged. Read it
+   * before {@link #flaggedOrdinals} to tell whether what was derived is still current.
+   */
+  long version() {
+    return version.get();
+  }
+
+  /** Returns the ordinals of the flagged videos, in no particular order. */
+  int[] flaggedOrdinals() {
+    return reasons.keySet().stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /** Returns the flag reason of the video, or null if it is not flagged. */
+  String getReason(int ordinal) {
+    return reasons.get(ordinal);
+  }
+
+}
@@ -0,0 +1,255 @@
+package com.google;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps video ids to ordinals with open addressing and linear probing.
+ *
+ * Ids are stored once, as UTF-8 bytes in chunked byte arrays, and each slot only holds the
+ * cached hash and the ordinal of its id, so an entry costs a few dozen bytes instead of
+ * the node, boxed integer and string of a {@code HashMap<String, Integer>}. Lookups do not
+ * allocate, whether the id comes as a string or as raw bytes.
+ */
+final class VideoIdIndex {
+
+  private static final int EMPTY = -1;
+  private static final int MIN_CHUNK = 1 << 12;
+  private static final int MAX_CHUNK = 1 << 24;
+  private static final int MAX_KEY = 0xFFFF;
+
+  // Reused by string lookups to encode the id without allocating
+  private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[64]);
+
+  private int[] slotHashes;
+  private int[] slotOrdinals;
+  private int size;
+
+  // Key address of every ordinal: chunk index in the high 32 bits, offset in the low ones
+  private long[] keys;
+  private byte[][] chunks;
+  private byte[] chunk;
+  private int chunkPosition;
+
+  VideoIdIndex() {
+    this.slotHashes = new int[16];
+    this.slotOrdinals = new int[16];
+    Arrays.fill(this.slotOrdinals, EMPTY);
+    this.keys = new long[16];
+    this.chunks = new byte[0][];
+  }
+
+  private VideoIdIndex(VideoIdIndex other) {
+    this.slotHashes = other.slotHashes.clone();
+    this.slotOrdinals = other.slotOrdinals.clone();
+    this.size = other.size;
+    this.keys = other.keys.clone();
+    // Existing keys never move; new ones go to a fresh chunk, never into shared ones
+    this.chunks = other.chunks.clone();
+  }
+
+  /** Returns an independent copy of this index that shares the stored keys. */
+  VideoIdIndex copy() {
+    return new VideoIdIndex(this);
+  }
+
+  /** Returns the number of ids in the index. */
+  int size() {
+    return size;
+  }
+
+  /** Returns the ordinal of the video id, or -1 if it is not in the index. */
+  int get(String videoId) {
+    byte[] scratch = SCRATCH.get();
+    int length = encode(videoId, scratch);
+    if (length > scratch.length) {
+      scratch = new byte[length];
+      SCRATCH.set(scratch);
+      encode(videoId, scratch);
+    }
+    return get(scratch, 0, length);
+  }
+
+  /** Returns the ordinal of the video id given as UTF-8 bytes, or -1 if it is not in the index. */
+  int get(byte[] bytes, int offset, int length) {
+    int hash = hash(bytes, offset, length);
+    int mask = slotOrdinals.length - 1;
+
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      int ordinal = slotOrdinals[slot];
+      if (ordinal == EMPTY) {
+        return EMPTY;
+      }
+      if (slotHashes[slot] == hash && keyEquals(ordinal, bytes, offset, length)) {
+        return ordinal;
+      }
+    }
+  }
+
+  /**
+   * Maps the id to the ordinal. The id must not be in the index yet, and each ordinal may
+   * only be used once.
+   */
+  void put(String videoId, int ordinal) {
+    byte[] bytes = videoId.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > MAX_KEY) {
+      throw new IllegalArgumentException("Video id longer than " + MAX_KEY + " bytes");
+    }
+    if ((size + 1) * 4L > slotOrdinals.length * 3L) {
+      resize(slotOrdinals.length * 2);
+    }
+
+    if (ordinal >= keys.length) {
+      keys = Arrays.copyOf(keys, Math.max(ordinal + 1, keys.length * 2));
+    }
+    keys[ordinal] = storeKey(bytes);
+
+    int hash = hash(bytes, 0, bytes.length);
+    int mask = slotOrdinals.length - 1;
+    int slot = hash & mask;
+    while (slotOrdinals[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    slotHashes[slot] = hash;
+    slotOrdinals[slot] = ordinal;
+    size++;
+  }
+
+  /**
+   * Removes the id from the index and returns its ordinal, or -1 if it was not there.
+   */
+  int remove(String videoId) {
+    byte[] bytes = videoId.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(bytes, 0, bytes.length);
+    int mask = slotOrdinals.length - 1;
+
+    int slot = hash & mask;
+    while (true) {
+      int ordinal = slotOrdinals[slot];
+      if (ordinal == EMPTY) {
+        return EMPTY;
+      }
+      if (slotHashes[slot] == hash && keyEquals(ordinal, bytes, 0, bytes.length)) {
+        break;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    int removed = slotOrdinals[slot];
+    size--;
+
+    // Shift back the following entries of the probe run so no lookup stops early
+    int hole = slot;
+    for (int next = (hole + 1) & mask; slotOrdinals[next] != EMPTY; next = (next + 1) & mask) {
+      int home = slotHashes[next] & mask;
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        slotHashes[hole] = slotHashes[next];
+        slotOrdinals[hole] = slotOrdinals[next];
+        hole = next;
+      }
+    }
+    slotOrdinals[hole] = EMPTY;
+
+    return removed;
+  }
+
+  private void resize(int capacity) {
+    int[] oldHashes = slotHashes;
+    int[] oldOrdinals = slotOrdinals;
+    slotHashes = new int[capacity];
+    slotOrdinals = new int[capacity];
+    Arrays.fill(slotOrdinals, EMPTY);
+
+    int mask = capacity - 1;
+    for (int i = 0; i < oldOrdinals.length; i++) {
+      if (oldOrdinals[i] != EMPTY) {
+        int slot = oldHashes[i] & mask;
+        while (slotOrdinals[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        slotHashes[slot] = oldHashes[i];
+        slotOrdinals[slot] = oldOrdinals[i];
+      }
+    }
+  }
+
+  /**
+   * Appends the key, prefixed with its length on two bytes, and returns its address.
+   */
+  private long storeKey(byte[] bytes) {
+    int needed = bytes.length + 2;
+    if (chunk == null || chunkPosition + needed > chunk.length) {
+      int capacity = chunk == null ? MIN_CHUNK : Math.min(MAX_CHUNK, chunk.length * 2);
+      chunk = new byte[Math.max(capacity, needed)];
+      chunks = Arrays.copyOf(chunks, chunks.length + 1);
+      chunks[chunks.length - 1] = chunk;
+      chunkPosition = 0;
+    }
+
+    chunk[chunkPosition] = (byte) (bytes.length >>> 8);
+    chunk[chunkPosition + 1] = (byte) bytes.length;
+    System.arraycopy(bytes, 0, chunk, chunkPosition + 2, bytes.length);
+
+    long address = ((long) (chunks.length - 1) << 32) | chunkPosition;
+    chunkPosition += needed;
+    return address;
+  }
+
+  private boolean keyEquals(int ordinal, byte[] bytes, int offset, int length) {
+    long address = keys[ordinal];
+    byte[] keyChunk = chunks[(int) (address >>> 32)];
+    int position = (int) address;
+    int keyLength = ((keyChunk[position] & 0xFF) << 8) | (keyChunk[position + 1] & 0xFF);
+    return keyLength == length && Arrays.equals(
+        keyChunk, position + 2, position + 2 + length, bytes, offset, offset + length);
+  }
+
+  private static int hash(byte[] bytes, int offset, int length) {
+    int hash = 0x811C9DC5;
+    for (int i = offset; i < offset + length; i++) {
+      hash = (hash ^ bytes[i]) * 0x01000193;
+    }
+    // Spread the bits so that the low ones, used for the slot, depend on every byte
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Encodes the string to UTF-8 like {@link String#getBytes} does, into the given buffer
+   * if it fits. Returns the encoded length either way.
+   */
+  private static int encode(String value, byte[] out) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length = put(out, length, c);
+      } else if (c < 0x800) {
+        length = put(out, length, 0xC0 | (c >> 6));
+        length = put(out, length, 0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        length = put(out, length, 0xF0 | (codePoint >> 18));
+        length = put(out, length, 0x80 | ((codePoint >> 12) & 0x3F));
+        length = put(out, length, 0x80 | ((codePoint >> 6) & 0x3F));
+        length = put(out, length, 0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates are replaced, as String.getBytes does
+        length = put(out, length, '?');
+      } else {
+        length = put(out, length, 0xE0 | (c >> 12));
+        length = put(out, length, 0x80 | ((c >> 6) & 0x3F));
+        length = put(out, length, 0x80 | (c & 0x3F));
+      }
+    }
+    return length;
+  }
+
+  private static int put(byte[] out, int position, int value) {
+    if (position < out.length) {
+      out[position] = (byte) value;
+    }
+    return position + 1;
+  }
+
+}
@@ -1,63 +1,628 @@
 package com.google;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Scanner;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntUnaryOperator;
+import java.util.regex.Pattern;
 
 /**
  * A class used to represent a Video Library.
  */
 class VideoLibrary {
 
-  private final HashMap<String, Video> videos;
+  private final Path catalogFile;
+  private final ForkJoinPool pool;
+  private final Path snapshot;
+  private final boolean offHeap;
+
+  // About 4 MB of cached search results
+  private static final long SEARCH_CACHE_CAPACITY = 1 << 20;
+
+  private final VideoFlags flags = new VideoFlags();
+  private final SearchCache searchCache = new SearchCache(SEARCH_CACHE_CAPACITY);
+
+  // The unflagged videos, for picking a random one in constant time
+  private final EligibleVideos eligible = new EligibleVideos();
+
+  // Replaced as a whole on reload, so readers always see one consistent catalog
+  private volatile VideoCatalog catalog;
 
   VideoLibrary() {
 
-    this.videos = new HashMap<>();
+    this.catalogFile = bundledCatalog();
+    this.pool = null;
+    this.snapshot = null;
+    this.offHeap = false;
+    this.catalog = this.newCatalog().build();
+    this.flags.addListener(this::flagChanged);
 
     try {
-      File file = new File(this.getClass().getResource("/videos.txt").getFile());
-
-      Scanner scanner = new Scanner(file);
-
-      while (scanner.hasNextLine()) {
-        String line = scanner.nextLine();
-        String[] split = line.split("\\|");
-        String title = split[0].strip();
-        String id = split[1].strip();
-        List<String> tags;
-        if (split.length > 2) {
-          tags = Arrays.stream(split[2].split(",")).map(String::strip).collect(
-              Collectors.toList());
-        } else {
-          tags = new ArrayList<>();
+      if (this.catalogFile != null) {
+        this.catalog = this.read(false);
+      } else {
+        URL resource = this.getClass().getResource("/videos.txt");
+        if (resource == null) {
+          throw new IOException("videos.txt is not on the classpath");
+        }
+        try (InputStream stream = resource.openStream()) {
+          VideoCatalog.Builder builder = this.newCatalog();
+          CatalogLoader.load(stream, builder);
+          this.catalog = builder.build();
         }
-        this.videos.put(id, new Video(title, id, tags));
       }
 
-      scanner.close();
-
-    } catch (FileNotFoundException e) {
+    } catch (IOException e) {
       System.out.println("Couldn't find videos.txt");
       e.printStackTrace();
     }
 
+    this.index(this.catalog);
+    eligible.rebuild(this.catalog, flags);
+
+  }
+
+  /**
+   * Creates a library from the catalog file at the given filesystem path.
+   */
+  VideoLibrary(Path catalogFile) {
+    this(catalogFile, null, null);
+  }
+
+  /**
+   * Creates a library from the catalog file at the given filesystem path, parsing it in
+   * parallel on the given pool. Duplicate video ids resolve to the last one in the file,
+   * as with the sequential load.
+   */
+  VideoLibrary(Path catalogFile, ForkJoinPool pool) {
+    this(catalogFile, pool, null);
+  }
+
+  /**
+   * Creates a library from the catalog file at the given filesystem path.
+   *
+   * If a snapshot path is given and the snapshot is at least as new as the catalog, the
+   * library is read from the snapshot and the text catalog is not parsed at all. Otherwise
+   * the catalog is parsed (in parallel if a pool is given) and the snapshot is rebuilt.
+   */
+  VideoLibrary(Path catalogFile, ForkJoinPool pool, Path snapshot) {
+    this(catalogFile, pool, snapshot, false);
+  }
+
+  /**
+   * Creates a library from the catalog file at the given filesystem path, as above.
+   *
+   * With {@code offHeap} set, the videos are kept in off-heap columns instead of one object
+   * per video, which is meant for catalogs too large for the Java heap.
+   */
+  VideoLibrary(Path catalogFile, ForkJoinPool pool, Path snapshot, boolean offHeap) {
+
+    this.catalogFile = catalogFile;
+    this.pool = pool;
+    this.snapshot = snapshot;
+    this.offHeap = offHeap;
+    this.catalog = this.newCatalog().build();
+    this.flags.addListener(this::flagChanged);
+
+    try {
+      this.catalog = this.read(true);
+    } catch (IOException e) {
+      System.out.printf("Couldn't read %s%n", catalogFile);
+      e.printStackTrace();
+    }
+
+    this.index(this.catalog);
+    eligible.rebuild(this.catalog, flags);
+
+  }
+
+  /**
+   * Returns the path of the bundled videos.txt, or null if it is not a plain file
+   * (e.g. when packed in a jar).
+   */
+  static Path bundledCatalog() {
+    URL resource = VideoLibrary.class.getResource("/videos.txt");
+    try {
+      return resource != null && "file".equals(resource.getProtocol())
+          ? Path.of(resource.toURI()) : null;
+    } catch (URISyntaxException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the catalog file this library was loaded from, or null if it was loaded from
+   * a packed resource.
+   */
+  Path getCatalogFile() {
+    return catalogFile;
+  }
+
+  /**
+   * Returns the current version of the catalog. It does not change under the caller, even
+   * if the catalog is reloaded meanwhile.
+   */
+  VideoCatalog getCatalog() {
+    return catalog;
+  }
+
+  private VideoCatalog.Builder newCatalog() {
+    return VideoCatalog.builder(
+        offHeap ? OffHeapVideoStore.builder(flags) : HeapVideoStore.builder(flags));
+  }
+
+  /**
+   * Reads the catalog file, going through the snapshot if one is configured and allowed.
+   */
+  private VideoCatalog read(boolean useSnapshot) throws IOException {
+
+    if (useSnapshot && snapshot != null && CatalogSnapshot.isFresh(snapshot, catalogFile)) {
+      try {
+        VideoCatalog.Builder builder = this.newCatalog();
+        CatalogSnapshot.read(snapshot, builder);
+        return builder.build();
+      } catch (IOException e) {
+        // Fall back to the text catalog and rewrite the snapshot below
+      }
+    }
+
+    VideoCatalog.Builder builder = this.newCatalog();
+    if (pool != null) {
+      CatalogLoader.load(catalogFile, pool, builder);
+    } else {
+      CatalogLoader.load(catalogFile, builder);
+    }
+    VideoCatalog loaded = builder.build();
+
+    if (snapshot != null) {
+      try {
+        CatalogSnapshot.write(snapshot, loaded);
+      } catch (IOException e) {
+        System.out.printf("Couldn't write snapshot %s%n", snapshot);
+        e.printStackTrace();
+      }
+    }
+
+    return loaded;
+  }
+
+  /**
+   * Re-reads the catalog file and applies the difference to the library in a single
+   * atomic swap: readers see either the old or the new catalog, never a mix of both.
+   *
+   * Videos keep their ordinal (and so their flag) when they change, and unchanged videos
+   * keep their identity. Returns the applied delta, or null if the catalog could not be
+   * read.
+   */
+  synchronized CatalogDelta reload() {
+    if (catalogFile == null) {
+      return null;
+    }
+
+    VideoCatalog current = this.catalog;
+    VideoCatalog latest;
+    try {
+      latest = this.read(false);
+    } catch (IOException e) {
+      System.out.printf("Couldn't read %s%n", catalogFile);
+      e.printStackTrace();
+      return null;
+    }
+
+    VideoStore currentStore = current.getStore();
+    VideoStore latestStore = latest.getStore();
+    VideoCatalog.Builder next = current.toBuilder();
+    List<String> added = new ArrayList<>();
+    List<String> changed = new ArrayList<>();
+    Set<String> removed = new HashSet<>();
+    List<Integer> removedOrdinals = new ArrayList<>();
+
+    for (int ordinal = 0; ordinal < latestStore.size(); ordinal++) {
+      String videoId = latestStore.getVideoId(ordinal);
+      if (videoId == null) {
+        continue;
+      }
+      String title = latestStore.getTitle(ordinal);
+      int[] tagIds = latestStore.getTagIds(ordinal);
+      int existing = current.ordinalOf(videoId);
+
+      if (existing < 0) {
+        added.add(videoId);
+        next.accept(title, videoId, tagIds);
+      } else if (!title.equals(currentStore.getTitle(existing))
+          || !Arrays.equals(tagIds, currentStore.getTagIds(existing))) {
+        changed.add(videoId);
+        next.accept(title, videoId, tagIds);
+      }
+    }
+
+    for (int ordinal = 0; ordinal < currentStore.size(); ordinal++) {
+      String videoId = currentStore.getVideoId(ordinal);
+      if (videoId != null && latest.ordinalOf(videoId) < 0) {
+        removed.add(videoId);
+        removedOrdinals.add(next.remove(videoId));
+      }
+    }
+
+    if (added.isEmpty() && changed.isEmpty() && removed.isEmpty()) {
+      return new CatalogDelta(Map.of(), Set.of(), Map.of());
+    }
+
+    VideoCatalog applied = next.build();
+    // Index before publishing, so that no search has to wait for it
+    this.index(applied);
+    this.catalog = applied;
+    searchCache.clear();
+    // Rebuilt before the flags of removed videos are dropped, so that they stay out
+    eligible.rebuild(applied, flags);
+    removedOrdinals.forEach(flags::unflag);
+
+    return new CatalogDelta(videosById(applied, added), removed, videosById(applied, changed));
+  }
+
+  private void flagChanged(int ordinal) {
+    VideoCatalog current = this.catalog;
+    Video video = ordinal < current.ordinalCount() ? current.getVideo(ordinal) : null;
+    if (video != null) {
+      searchCache.invalidate(video);
+    }
+    eligible.update(ordinal, flags);
+  }
+
+  /** Returns the cache of title and tag search results, e.g. for its statistics. */
+  SearchCache getSearchCache() {
+    return searchCache;
+  }
+
+  /**
+   * Builds the search indexes of the catalog ahead of its first search; the index of title
+   * prefixes, only used by suggestions, waits for the first of them. Off-heap catalogs
+   * only get their title index, whose postings live in direct memory; the other indexes
+   * hold per-video data on the Java heap, so they are only built if their kind of search
+   * is used.
+   */
+  private void index(VideoCatalog catalog) {
+    catalog.getTitleIndex();
+    if (offHeap) {
+      return;
+    }
+    catalog.getTagIndex();
+    catalog.getTitleWords();
+    catalog.getRankedIndex();
+  }
+
+  private static Map<String, Video> videosById(VideoCatalog catalog, List<String> videoIds) {
+    Map<String, Video> videos = new HashMap<>();
+    for (String videoId : videoIds) {
+      videos.put(videoId, catalog.getVideo(videoId));
+    }
+    return videos;
+  }
+
+  /**
+   * Returns the number of videos in the library.
+   */
+  int size() {
+    return this.catalog.size();
+  }
+
+  /**
+   * Returns the videos of the library sorted by title, then by id, without copying or
+   * sorting them: the order is maintained as the catalog changes. The list does not change
+   * under the caller, even if the catalog is reloaded meanwhile.
+   */
+  List<Video> getVideosByTitle() {
+    return this.catalog.getVideosByTitle();
+  }
+
+  /** Returns the flagged videos of the library, in no particular order. */
+  List<Video> getFlaggedVideos() {
+    VideoCatalog current = this.catalog;
+    List<Video> videos = new ArrayList<>();
+    for (int ordinal : flags.flaggedOrdinals()) {
+      Video video = ordinal < current.ordinalCount() ? current.getVideo(ordinal) : null;
+      if (video != null) {
+        videos.add(video);
+      }
+    }
+    return videos;
   }
 
   List<Video> getVideos() {
-    return new ArrayList<>(this.videos.values());
+    VideoCatalog current = this.catalog;
+    List<Video> videos = new ArrayList<>(current.size());
+    for (int ordinal = 0; ordinal < current.ordinalCount(); ordinal++) {
+      Video video = current.getVideo(ordinal);
+      if (video != null) {
+        videos.add(video);
+      }
+    }
+    return videos;
+  }
+
+  /**
+   * Returns a page of the videos of the library sorted by title, flagged ones included.
+   */
+  ResultPage getVideosByTitle(Paging paging) {
+    VideoCatalog current = this.catalog;
+    int count = current.size();
+    return page(current, from -> from < count ? from : -1, IntBitmap.EMPTY, paging);
+  }
+
+  /**
+   * Returns the videos whose title contains the search term, ignoring case, sorted by
+   * title. Flagged videos are left out.
+   */
+  List<Video> searchVideos(String searchTerm) {
+    return searchVideos(searchTerm, Paging.ALL).getVideos();
+  }
+
+  /** Returns a page of the results of {@link #searchVideos(String)}. */
+  ResultPage searchVideos(String searchTerm, Paging paging) {
+    VideoCatalog current = this.catalog;
+    IntUnaryOperator matches = current.getTitleIndex().matcher(SearchKey.fold(searchTerm));
+    return cachedPage(current, SearchCache.Key.title(searchTerm), matches, paging);
+  }
+
+  /**
+   * Returns the videos carrying the tag, ignoring case, sorted by title. The tag must match
+   * a whole tag of the video. Flagged videos are left out.
+   */
+  List<Video> searchVideosWithTag(String videoTag) {
+    return searchVideosWithTag(videoTag, Paging.ALL).getVideos();
+  }
+
+  /** Returns a page of the results of {@link #searchVideosWithTag(String)}. */
+  ResultPage searchVideosWithTag(String videoTag, Paging paging) {
+    VideoCatalog current = this.catalog;
+    IntBitmap matches = current.getTagIndex().get(SearchKey.fold(videoTag));
+    return cachedPage(current, SearchCache.Key.tag(videoTag), matches::next, paging);
+  }
+
+  /**
+   * Returns the videos matching the tag expression, sorted by title. Flagged videos are
+   * left out.
+   */
+  List<Video> searchVideosWithTags(TagQuery query) {
+    return searchVideosWithTags(query, Paging.ALL).getVideos();
+  }
+
+  /** Returns a page of the results of {@link #searchVideosWithTags(TagQuery)}. */
+  ResultPage searchVideosWithTags(TagQuery query, Paging paging) {
+    VideoCatalog current = this.catalog;
+    IntBitmap matches = query.evaluate(current.getTagIndex(), current.size())
+        .andNot(current.getFlaggedRanks(flags));
+    return page(current, matches::next, IntBitmap.EMPTY, paging);
+  }
+
+  /**
+   * Returns the videos whose title contains a match of the regular expression, sorted by
+   * title. Flagged videos are left out.
+   *
+   * No index can answer such a search, so the catalog is scanned, in parallel shards.
+   */
+  List<Video> searchVideosMatching(Pattern pattern) {
+    return searchVideosMatching(pattern, Paging.ALL).getVideos();
+  }
+
+  /** Returns a page of the results of {@link #searchVideosMatching(Pattern)}. */
+  ResultPage searchVideosMatching(Pattern pattern, Paging paging) {
+    VideoCatalog current = this.catalog;
+    VideoStore store = current.getStore();
+    int[] ranks = ShardedScan.scan(current,
+        ordinal -> !flags.isFlagged(ordinal) && pattern.matcher(store.getTitle(ordinal)).find(),
+        pool != null ? pool : ForkJoinPool.commonPool());
+    return page(current, over(ranks), IntBitmap.EMPTY, paging);
+  }
+
+  /**
+   * Returns the at most {@code k} videos most relevant to the search term, by the BM25
+   * score of the words of their title and tags, best first. Flagged videos are left out.
+   */
+  List<Video> searchVideosRanked(String searchTerm, int k) {
+    VideoCatalog current = this.catalog;
+    int[] ranks = current.getRankedIndex().search(searchTerm, k, current.getFlaggedRanks(flags));
+
+    int[] order = current.getTitleOrder();
+    List<Video> videos = new ArrayList<>(ranks.length);
+    for (int rank : ranks) {
+      videos.add(current.getVideo(order[rank]));
+    }
+    return videos;
+  }
+
+  /**
+   * Returns the videos whose title has, for every word of the search term, a word within
+   * the given number of edits of it, ignoring case. A negative number of edits picks one
+   * by word length: none up to 2 characters, 1 up to 5, and 2 beyond.
+   *
+   * Videos are sorted by their total distance to the search term, then by title. Flagged
+   * videos are left out.
+   */
+  List<Video> searchVideosFuzzy(String searchTerm, int maxEdits) {
+    VideoCatalog current = this.catalog;
+    TitleWords vocabulary = current.getTitleWords();
+
+    // matches[d] holds the titles at a total distance d from the words seen so far
+    IntBitmap[] matches = null;
+    for (String word : TitleWords.split(SearchKey.fold(searchTerm))) {
+      int edits = maxEdits;
+      if (edits < 0) {
+        edits = word.length() <= 2 ? 0 : word.length() <= 5 ? 1 : 2;
+      }
+      IntBitmap[] near = vocabulary.near(word, edits);
+      if (matches == null) {
+        matches = near;
+        continue;
+      }
+
+      IntBitmap[] combined = new IntBitmap[matches.length + near.length - 1];
+      Arrays.fill(combined, IntBitmap.EMPTY);
+      for (int a = 0; a < matches.length; a++) {
+        for (int b = 0; b < near.length; b++) {
+          combined[a + b] = combined[a + b].or(matches[a].and(near[b]));
+        }
+      }
+      matches = combined;
+    }
+
+    List<Video> videos = new ArrayList<>();
+    if (matches != null) {
+      IntBitmap flagged = current.getFlaggedRanks(flags);
+      int[] order = current.getTitleOrder();
+      for (IntBitmap ranks : matches) {
+        ranks.andNot(flagged).forEach(rank -> videos.add(current.getVideo(order[rank])));
+      }
+    }
+    return videos;
+  }
+
+  /**
+   * Returns up to {@code limit} videos whose title starts with the prefix, ignoring case,
+   * sorted by title ignoring case. Flagged videos are left out.
+   */
+  List<Video> suggest(String prefix, int limit) {
+    VideoCatalog current = this.catalog;
+    int[] matches = current.getTitlePrefixes().complete(SearchKey.fold(prefix), limit, flags);
+
+    List<Video> videos = new ArrayList<>(matches.length);
+    for (int ordinal : matches) {
+      videos.add(current.getVideo(ordinal));
+    }
+    return videos;
+  }
+
+  /**
+   * Collects a page of the unflagged results like {@link #page}, going through the search
+   * cache. Full results are computed and cached on a miss; a page with a limit is computed
+   * lazily and not cached, to keep its memory bounded by its size.
+   */
+  private ResultPage cachedPage(
+      VideoCatalog catalog, SearchCache.Key key, IntUnaryOperator matches, Paging paging) {
+    // Read before matching, so that a flag changed meanwhile keeps the result out
+    long flagsVersion = flags.version();
+    int[] ranks = searchCache.get(key, catalog);
+    IntBitmap excluded = catalog.getFlaggedRanks(flags);
+
+    if (ranks == null) {
+      if (paging.getLimit() != Integer.MAX_VALUE) {
+        return page(catalog, matches, excluded, paging);
+      }
+      int count = 0;
+      ranks = new int[16];
+      for (int rank = matches.applyAsInt(0); rank >= 0; rank = matches.applyAsInt(rank + 1)) {
+        if (!excluded.contains(rank)) {
+          if (count == ranks.length) {
+            ranks = Arrays.copyOf(ranks, count * 2);
+          }
+          ranks[count++] = rank;
+        }
+      }
+      ranks = Arrays.copyOf(ranks, count);
+      searchCache.put(key, catalog, flags, flagsVersion, ranks);
+    }
+
+    return page(catalog, over(ranks), IntBitmap.EMPTY, paging);
+  }
+
+  /** Returns the matches function walking an ascending array of ranks. */
+  private static IntUnaryOperator over(int[] ranks) {
+    return from -> {
+      int index = Arrays.binarySearch(ranks, from);
+      index = index >= 0 ? index : -index - 1;
+      return index < ranks.length ? ranks[index] : -1;
+    };
+  }
+
+  /**
+   * Collects a page of results, walking the title order through {@code matches}, which
+   * gives the first matching rank from a given one, and leaving out the excluded ranks.
+   * Matching stops as soon as the page is full, so a page costs about its size plus the
+   * offset skipped, whatever the number of matches.
+   */
+  private static ResultPage page(
+      VideoCatalog catalog, IntUnaryOperator matches, IntBitmap excluded, Paging paging) {
+    int[] order = catalog.getTitleOrder();
+    Paging.Cursor after = paging.getAfter();
+    int rank = after != null ? catalog.rankAfter(after.getTitle(), after.getVideoId()) : 0;
+    int position = after != null ? after.getPosition() : paging.getOffset();
+    int skip = after != null ? 0 : paging.getOffset();
+
+    List<Video> videos = new ArrayList<>(Math.min(paging.getLimit(), 64));
+    boolean more = false;
+    for (rank = matches.applyAsInt(rank); rank >= 0; rank = matches.applyAsInt(rank + 1)) {
+      if (excluded.contains(rank)) {
+        continue;
+      }
+      if (skip > 0) {
+        skip--;
+      } else if (videos.size() == paging.getLimit()) {
+        more = true;
+        break;
+      } else {
+        videos.add(catalog.getVideo(order[rank]));
+      }
+    }
+
+    Paging.Cursor next = null;
+    if (more) {
+      Video last = videos.get(videos.size() - 1);
+      next = new Paging.Cursor(position + videos.size(), last.getTitle(), last.getVideoId());
+    }
+    return new ResultPage(videos, position, next);
   }
 
   /**
    * Get a video by id. Returns null if the video is not found.
    */
   Video getVideo(String videoId) {
-    return this.videos.get(videoId);
+    return this.catalog.getVideo(videoId);
+  }
+
+  /**
+   * Returns an unflagged video picked uniformly at random, or null if there is none.
+   */
+  Video getRandomVideo() {
+    return eligible.random();
+  }
+
+  /**
+   * Returns a new shuffled order of the videos of the library, with a random seed.
+   */
+  Shuffle newShuffle() {
+    return new Shuffle(this.catalog.ordinalCount(), ThreadLocalRandom.current().nextLong());
+  }
+
+  /**
+   * Returns the next video of the shuffled order, or null once it was played through.
+   * Videos flagged or removed since the order was made are skipped; videos added since
+   * wait for the next order.
+   */
+  Video nextShuffled(Shuffle shuffle) {
+    VideoCatalog current = this.catalog;
+    int[] ranks = current.getRanks();
+    int ordinal = shuffle.next(
+        next -> next < ranks.length && ranks[next] >= 0 && !flags.isFlagged(next));
+    return ordinal >= 0 ? current.getVideo(ordinal) : null;
+  }
+
+  /**
+   * Get a video by its ordinal. Returns null if the ordinal was removed or is unknown.
+   */
+  Video getVideo(int ordinal) {
+    VideoCatalog current = this.catalog;
+    return ordinal >= 0 && ordinal < current.ordinalCount() ? current.getVideo(ordinal) : null;
   }
 
 }
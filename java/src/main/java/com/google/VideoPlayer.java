@@ -1,7 +1,17 @@
 package com.google;
 
 import java.io.Console;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class VideoPlayer {
 
@@ -35,20 +45,37 @@ public class VideoPlayer {
 
   private static final String PLAYLIST_ALREADY_EXISTS = "Cannot create playlist: A playlist with the same name already exists";
 
+  private static final String CHANGE_NOT_SAVED = "Change could not be saved";
+
+  private static final String DEFAULT_SESSION = "default";
+
+  private static final int PLAYLIST_LOCK_STRIPES = 64;
+
   /** 
    * ------------
    *  ATTRIBUTES
    * ------------
    */
 
-  private Random randomGenerator;
-
   private final VideoLibrary videoLibrary;
 
-  private Video video;
+  // Playback state of every session, shared by the players of one library
+  private final PlaybackSessions sessions;
+
+  // The session the commands of this player act on
+  private final PlaybackSessions.Session session;
 
   // Ensure playlists are in lexicographical order by name
-  private TreeMap<String, VideoPlaylist> playlists;
+  private ConcurrentSkipListMap<String, VideoPlaylist> playlists;
+
+  // Changes to the same playlist run one at a time, changes to others in parallel
+  private final LockStripes playlistLocks = new LockStripes(PLAYLIST_LOCK_STRIPES);
+
+  // Where changes to playlists and flags are kept across restarts
+  private final StateLog stateLog;
+
+  // Messages of background work such as catalog reloads, printed by the command loop
+  private final Queue<String> notices = new ConcurrentLinkedQueue<>();
 
   /** 
    * -------------
@@ -58,11 +85,62 @@ public class VideoPlayer {
 
   public VideoPlayer() {
 
-    this.randomGenerator = new Random();
+    this(new VideoLibrary());
+
+  }
+
+  VideoPlayer(VideoLibrary videoLibrary) {
+
+    this(videoLibrary, new PlaybackSessions(), DEFAULT_SESSION);
+
+  }
+
+  /** 
+   * Creates a player for one of the sessions sharing a library, e.g. one per connected user.
+   * 
+   * @param videoLibrary
+   * @param sessions
+   * @param sessionId
+   */
+  VideoPlayer(VideoLibrary videoLibrary, PlaybackSessions sessions, String sessionId) {
+
+    this(videoLibrary, sessions, sessionId, new StateLog());
+
+  }
+
+  /** 
+   * Creates a player keeping its playlists and flags in the given log, starting from the
+   * state recovered from it.
+   * 
+   * @param videoLibrary
+   * @param stateLog
+   * @throws UncheckedIOException if the log cannot be recovered and opened
+   */
+  VideoPlayer(VideoLibrary videoLibrary, StateLog stateLog) {
+
+    this(videoLibrary, new PlaybackSessions(), DEFAULT_SESSION, stateLog);
+
+  }
+
+  VideoPlayer(VideoLibrary videoLibrary, PlaybackSessions sessions, String sessionId, StateLog stateLog) {
+
+    this.videoLibrary = videoLibrary;
+
+    this.sessions = sessions;
+
+    this.session = sessions.session(sessionId);
 
-    this.videoLibrary = new VideoLibrary();
+    this.playlists = new ConcurrentSkipListMap<>();
 
-    this.playlists = new TreeMap<>();
+    this.stateLog = stateLog;
+
+    // A log that cannot be opened would report every change as saved without keeping it,
+    // so the player does not start at all; a corrupt snapshot is moved aside by the log
+    try {
+      stateLog.recover(this::replay, this::writeState);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Couldn't recover playlists and flags from " + stateLog.getPath(), e);
+    }
 
   }
 
@@ -83,7 +161,7 @@ public class VideoPlayer {
    */
   public void numberOfVideos() {
 
-    System.out.printf("%s videos in the library%n", videoLibrary.getVideos().size());
+    System.out.printf("%s videos in the library%n", videoLibrary.size());
     
   }
 
@@ -93,10 +171,8 @@ public class VideoPlayer {
    */
   public void showAllVideos() {
 
-    List<Video> currentVideos = videoLibrary.getVideos();
-
-    // Sort in lexicographical order by title
-    Collections.sort(currentVideos);
+    // Already in lexicographical order by title, so printing starts right away
+    List<Video> currentVideos = videoLibrary.getVideosByTitle();
 
     System.out.println(LIBRARY_LIST);
 
@@ -104,6 +180,24 @@ public class VideoPlayer {
 
   }
 
+
+  /** 
+   * Print one page of the videos in the library, in the same format and order as above.
+   * 
+   * @param paging
+   */
+  public void showAllVideos(Paging paging) {
+
+    ResultPage page = videoLibrary.getVideosByTitle(paging);
+
+    System.out.println(LIBRARY_LIST);
+
+    page.getVideos().forEach(System.out::println);
+
+    showNextPage(page);
+
+  }
+
   
   /** 
    * Play the specified video. 
@@ -121,32 +215,148 @@ public class VideoPlayer {
     
     if (requestedVideo != null) {
 
-      if (requestedVideo.isFlagged()) {
+      play(requestedVideo, 0);
+
+    } else {
+
+      System.out.println(VIDEO_NOT_FOUND);
+
+    }
+
+  }
+
 
-        System.out.printf("Cannot play video: Video is currently flagged (reason: %s)%n", requestedVideo.getFlagReason());
+  /** 
+   * Plays a video of the library from the given position, in milliseconds, unless it is flagged.
+   * 
+   * @param requestedVideo
+   * @param position
+   */
+  private void play(Video requestedVideo, long position) {
+
+    if (requestedVideo.isFlagged()) {
+
+      System.out.printf("Cannot play video: Video is currently flagged (reason: %s)%n", requestedVideo.getFlagReason());
   
-        return;
+      return;
   
-      }
+    }
 
-      if (video != null) {
+    // Swap the video in one step, then report what was replaced
+    Video stoppedVideo = playing(session.play(requestedVideo.getOrdinal(), position));
 
-        video.resume();
-        System.out.printf(STOPPING_VIDEO + ": %s%n", video.getTitle());
-        video = null; // Added this for peace of mind even though I know there is no point.
+    if (stoppedVideo != null) {
 
-      }
+      System.out.printf(STOPPING_VIDEO + ": %s%n", stoppedVideo.getTitle());
+
+    }
+
+    // A flag set meanwhile may have missed this session, so check again
+    if (requestedVideo.isFlagged()) {
+
+      int ordinal = requestedVideo.getOrdinal();
+
+      session.stopIf(playingOrdinal -> playingOrdinal == ordinal);
+
+      System.out.printf("Cannot play video: Video is currently flagged (reason: %s)%n", requestedVideo.getFlagReason());
+
+      return;
+
+    }
+
+    if (position >= 1000) {
+
+      System.out.printf(PLAYING_VIDEO + ": %s (resuming at %s)%n", requestedVideo.getTitle(), formatPosition(position));
+
+    } else {
 
       System.out.printf(PLAYING_VIDEO + ": %s%n", requestedVideo.getTitle());
-      video = requestedVideo;
-      video.resume();
+
+    }
+
+  }
+
+
+  /** 
+   * Plays the video played before the current one again, from where it stopped.
+   * 
+   * If there is no such video in the history, display a warning message.
+   * 
+   */
+  public void playPreviousVideo() {
+
+    int previous = session.previous();
+
+    Video previousVideo = previous >= 0 ? videoLibrary.getVideo(session.historyOrdinal(previous)) : null;
+
+    if (previousVideo != null) {
+
+      play(previousVideo, session.historyPosition(previous));
 
     } else {
 
-      System.out.println(VIDEO_NOT_FOUND);
+      System.out.println("Cannot play previous video: No video was played before");
+
+    }
+
+  }
+
+
+  /** 
+   * Displays the videos played last in this session, most recent first, with when they
+   * stopped and how far they were watched.
+   * 
+   */
+  public void showHistory() {
+
+    List<String> entries = new ArrayList<>();
+
+    DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    session.forEachInHistory((ordinal, time, position) -> {
+
+      // Videos removed from the catalog since are left out
+      Video video = videoLibrary.getVideo(ordinal);
+
+      if (video != null) {
+
+        String stoppedAt = timeFormat.format(Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()));
+
+        entries.add(String.format("%s (%s) - watched %s, stopped at %s", video.getTitle(), video.getVideoId(), formatPosition(position), stoppedAt));
+
+      }
+
+    });
+
+    if (entries.isEmpty()) {
+
+      System.out.println("No playback history");
+
+      return;
 
     }
 
+    System.out.println("Playback history:");
+
+    for (int i = 0; i < entries.size(); i++) {
+      System.out.printf("%d) %s%n", i + 1, entries.get(i));
+    }
+
+  }
+
+
+  /** 
+   * Formats a playback position in milliseconds as minutes and seconds, e.g. 4:07.
+   * 
+   * @param position
+   * @return String
+   */
+  private static String formatPosition(long position) {
+
+    long seconds = position / 1000;
+
+    return String.format("%d:%02d", seconds / 60, seconds % 60);
+
   }
 
 
@@ -158,12 +368,12 @@ public class VideoPlayer {
    * 
    */
   public void stopVideo() {
+
+    Video stoppedVideo = playing(session.stop());
     
-    if (video != null) {
+    if (stoppedVideo != null) {
 
-      video.resume();
-      System.out.printf(STOPPING_VIDEO + ": %s%n", video.getTitle());
-      video = null; // Added this for peace of mind even though I know there is no point.
+      System.out.printf(STOPPING_VIDEO + ": %s%n", stoppedVideo.getTitle());
       
     } else {
 
@@ -183,27 +393,31 @@ public class VideoPlayer {
    */
   public void playRandomVideo() {
 
-    // Get an editable version of the list
-    List<Video> currentVideos = videoLibrary.getVideos();
+    Shuffle shuffle = session.getShuffle();
+
+    Video randomVideo;
+
+    if (shuffle == null) {
+
+      // Picked from the unflagged videos the library keeps packed, with this thread's generator
+      randomVideo = videoLibrary.getRandomVideo();
+
+    } else {
+
+      randomVideo = videoLibrary.nextShuffled(shuffle);
 
-    Iterator<Video> iterator = currentVideos.iterator();
+      if (randomVideo == null) {
 
-    // Remove videos that are flagged
-    while (iterator.hasNext()) {
+        // Every video came once, so start the next round in a new order
+        shuffle = session.replaceShuffle(shuffle, videoLibrary.newShuffle());
 
-      Video video = iterator.next();
+        randomVideo = shuffle != null ? videoLibrary.nextShuffled(shuffle) : videoLibrary.getRandomVideo();
 
-      if (video.isFlagged()) {
-        iterator.remove();
       }
 
-    }    
+    }
   
-    if (currentVideos.size() > 0) {
-
-      int index = randomGenerator.nextInt(currentVideos.size());
-    
-      Video randomVideo = currentVideos.get(index);
+    if (randomVideo != null) {
 
       playVideo(randomVideo.getVideoId());
 
@@ -216,6 +430,30 @@ public class VideoPlayer {
   }
 
 
+  /** 
+   * Turns shuffle on or off for PLAY_RANDOM.
+   * 
+   * With shuffle on, every video plays once, in a random order, before any plays again.
+   * 
+   * @param on
+   */
+  public void shuffle(boolean on) {
+
+    session.setShuffle(on ? videoLibrary.newShuffle() : null);
+
+    if (on) {
+
+      System.out.println("Shuffle on: every video plays once before any repeats");
+
+    } else {
+
+      System.out.println("Shuffle off");
+
+    }
+
+  }
+
+
   /** 
    * Play a random video. 
    * 
@@ -224,14 +462,17 @@ public class VideoPlayer {
    * 
    */
   public void pauseVideo() {
+
+    long previous = session.pause();
+
+    Video video = playing(previous);
     
     if (video != null) {
 
-      // Check that the video is not already paused
-      if (!video.isPaused()) {
+      // Check that the video was not already paused
+      if (!PlaybackSessions.isPaused(previous)) {
 
         System.out.printf(PAUSING_VIDEO + ": %s%n", video.getTitle());
-        video.pause();
 
       } else {
 
@@ -256,14 +497,17 @@ public class VideoPlayer {
    * 
    */
   public void continueVideo() {
+
+    long previous = session.resume();
+
+    Video video = playing(previous);
     
     if (video != null) {
 
-      // Check that the video is paused
-      if (video.isPaused()) {
+      // Check that the video was paused
+      if (PlaybackSessions.isPaused(previous)) {
 
         System.out.printf(CONTINUING_VIDEO + ": %s%n", video.getTitle());
-        video.resume();
 
       } else {
 
@@ -287,9 +531,15 @@ public class VideoPlayer {
    */
   public void showPlaying() {
 
+    long state = session.state();
+
+    Video video = playing(state);
+
     if (video != null) {
 
-      System.out.println(PLAYING_VIDEO_PLAYING + ": " + video.toString());
+      String paused = PlaybackSessions.isPaused(state) ? " - PAUSED" : "";
+
+      System.out.println(PLAYING_VIDEO_PLAYING + ": " + video.toString() + paused);
 
     } else {
 
@@ -314,19 +564,41 @@ public class VideoPlayer {
    */
   public void createPlaylist(String playlistName) {
 
-    String searchName = playlistName.toLowerCase();
+    String searchName = SearchKey.fold(playlistName);
 
-    if (playlists.get(searchName) != null) {
+    ReentrantLock lock = playlistLocks.get(searchName);
 
-      System.out.println(PLAYLIST_ALREADY_EXISTS);
+    // Begun before taking the stripe and ended after releasing it, so that the checkpoint
+    // end() may run holds no stripe; the other playlist commands nest the same way
+    stateLog.begin();
 
-    } else {
+    lock.lock();
+
+    try {
+
+      if (playlists.get(searchName) != null) {
+
+        System.out.println(PLAYLIST_ALREADY_EXISTS);
+
+      } else if (!log(StateLog.CREATE_PLAYLIST, playlistName)) {
+
+        System.out.printf("Cannot create playlist: %s%n", CHANGE_NOT_SAVED);
+
+      } else {
+
+        VideoPlaylist newPlaylist = new VideoPlaylist(playlistName);
+
+        playlists.put(searchName, newPlaylist);
+
+        System.out.printf(PLAYLIST_CREATED + ": %s%n", playlistName);
+
+      }
 
-      VideoPlaylist newPlaylist = new VideoPlaylist(playlistName);
+    } finally {
 
-      playlists.put(searchName, newPlaylist);
+      lock.unlock();
 
-      System.out.printf(PLAYLIST_CREATED + ": %s%n", playlistName);
+      stateLog.end();
 
     }
 
@@ -345,45 +617,65 @@ public class VideoPlayer {
    */
   public void addVideoToPlaylist(String playlistName, String videoId) {
     
-    String searchName = playlistName.toLowerCase();
+    String searchName = SearchKey.fold(playlistName);
 
-    VideoPlaylist requestedPlaylist = playlists.get(searchName);
+    ReentrantLock lock = playlistLocks.get(searchName);
 
-    if (requestedPlaylist != null) {
+    stateLog.begin();
+
+    lock.lock();
+
+    try {
 
-      Video requestedVideo = videoLibrary.getVideo(videoId);
+      VideoPlaylist requestedPlaylist = playlists.get(searchName);
+
+      if (requestedPlaylist != null) {
+
+        Video requestedVideo = videoLibrary.getVideo(videoId);
     
-      if (requestedVideo != null) {
+        if (requestedVideo != null) {
 
-        if (requestedVideo.isFlagged()) {
+          if (requestedVideo.isFlagged()) {
 
-          System.out.printf("Cannot add video to %s: Video is currently flagged (reason: %s)%n", playlistName, requestedVideo.getFlagReason());
+            System.out.printf("Cannot add video to %s: Video is currently flagged (reason: %s)%n", playlistName, requestedVideo.getFlagReason());
     
-          return;
+            return;
     
-        }
+          }
 
-        boolean success = requestedPlaylist.addVideo(requestedVideo);
-        
-        if (success) {
+          if (requestedPlaylist.containsVideo(requestedVideo)) {
+
+            System.out.printf("Cannot add video to %s: Video already added%n", playlistName);
+
+          } else if (!log(StateLog.ADD_VIDEO, playlistName, requestedVideo.getVideoId())) {
+
+            System.out.printf("Cannot add video to %s: %s%n", playlistName, CHANGE_NOT_SAVED);
 
-          System.out.printf("Added video to %s: %s%n", playlistName, requestedVideo.getTitle());
+          } else {
+
+            requestedPlaylist.addVideo(requestedVideo);
+
+            System.out.printf("Added video to %s: %s%n", playlistName, requestedVideo.getTitle());
+
+          }
 
         } else {
 
-          System.out.printf("Cannot add video to %s: Video already added%n", playlistName);
+          System.out.printf("Cannot add video to %s: Video does not exist%n", playlistName);
 
         }
 
       } else {
 
-        System.out.printf("Cannot add video to %s: Video does not exist%n", playlistName);
+        System.out.printf("Cannot add video to %s: Playlist does not exist%n", playlistName);
 
       }
 
-    } else {
+    } finally {
 
-      System.out.printf("Cannot add video to %s: Playlist does not exist%n", playlistName);
+      lock.unlock();
+
+      stateLog.end();
 
     }
 
@@ -421,7 +713,7 @@ public class VideoPlayer {
    */
   public void showPlaylist(String playlistName) {
     
-    String searchName = playlistName.toLowerCase();
+    String searchName = SearchKey.fold(playlistName);
 
     VideoPlaylist requestedPlaylist = playlists.get(searchName);
 
@@ -429,7 +721,7 @@ public class VideoPlayer {
 
       System.out.printf("Showing playlist: %s%n", playlistName);
 
-      Set<Video> playlistVideos = requestedPlaylist.getVideos();
+      List<Video> playlistVideos = requestedPlaylist.getVideos(videoLibrary.getCatalog());
 
       if (playlistVideos.size() > 0) {
 
@@ -460,37 +752,57 @@ public class VideoPlayer {
    */
   public void removeFromPlaylist(String playlistName, String videoId) {
 
-    String searchName = playlistName.toLowerCase();
+    String searchName = SearchKey.fold(playlistName);
 
-    VideoPlaylist requestedPlaylist = playlists.get(searchName);
+    ReentrantLock lock = playlistLocks.get(searchName);
 
-    if (requestedPlaylist != null) {
+    stateLog.begin();
+
+    lock.lock();
 
-      Video requestedVideo = videoLibrary.getVideo(videoId);
+    try {
+
+      VideoPlaylist requestedPlaylist = playlists.get(searchName);
+
+      if (requestedPlaylist != null) {
+
+        Video requestedVideo = videoLibrary.getVideo(videoId);
     
-      if (requestedVideo != null) {
+        if (requestedVideo != null) {
 
-        boolean success = requestedPlaylist.removeVideo(requestedVideo);
-        
-        if (success) {
+          if (!requestedPlaylist.containsVideo(requestedVideo)) {
 
-          System.out.printf("Removed video from %s: %s%n", playlistName, requestedVideo.getTitle());
+            System.out.printf("Cannot remove video from %s: Video is not in playlist%n", playlistName);
+
+          } else if (!log(StateLog.REMOVE_VIDEO, playlistName, requestedVideo.getVideoId())) {
+
+            System.out.printf("Cannot remove video from %s: %s%n", playlistName, CHANGE_NOT_SAVED);
+
+          } else {
+
+            requestedPlaylist.removeVideo(requestedVideo);
+
+            System.out.printf("Removed video from %s: %s%n", playlistName, requestedVideo.getTitle());
+
+          }
 
         } else {
 
-          System.out.printf("Cannot remove video from %s: Video is not in playlist%n", playlistName);
+          System.out.printf("Cannot remove video from %s: Video does not exist%n", playlistName);
 
         }
 
       } else {
 
-        System.out.printf("Cannot remove video from %s: Video does not exist%n", playlistName);
+        System.out.printf("Cannot remove video from %s: Playlist does not exist%n", playlistName);
 
       }
 
-    } else {
+    } finally {
+
+      lock.unlock();
 
-      System.out.printf("Cannot remove video from %s: Playlist does not exist%n", playlistName);
+      stateLog.end();
 
     }
 
@@ -506,22 +818,42 @@ public class VideoPlayer {
    */
   public void clearPlaylist(String playlistName) {
     
-    String searchName = playlistName.toLowerCase();
+    String searchName = SearchKey.fold(playlistName);
 
-    VideoPlaylist requestedPlaylist = playlists.get(searchName);
+    ReentrantLock lock = playlistLocks.get(searchName);
 
-    if (requestedPlaylist != null) {
+    stateLog.begin();
 
-      requestedPlaylist.clear();
+    lock.lock();
 
-      System.out.printf("Successfully removed all videos from %s%n", playlistName); 
+    try {
 
-    } else {
+      VideoPlaylist requestedPlaylist = playlists.get(searchName);
+
+      if (requestedPlaylist == null) {
+
+        System.out.printf("Cannot clear playlist %s: Playlist does not exist%n", playlistName);
+
+      } else if (!log(StateLog.CLEAR_PLAYLIST, playlistName)) {
+
+        System.out.printf("Cannot clear playlist %s: %s%n", playlistName, CHANGE_NOT_SAVED);
+
+      } else {
+
+        requestedPlaylist.clear();
+
+        System.out.printf("Successfully removed all videos from %s%n", playlistName); 
+
+      }
+
+    } finally {
 
-      System.out.printf("Cannot clear playlist %s: Playlist does not exist%n", playlistName);
+      lock.unlock();
+
+      stateLog.end();
 
     }
-    
+
   }
 
   
@@ -530,19 +862,39 @@ public class VideoPlayer {
    */
   public void deletePlaylist(String playlistName) {
     
-    String searchName = playlistName.toLowerCase();
+    String searchName = SearchKey.fold(playlistName);
 
-    VideoPlaylist requestedPlaylist = playlists.get(searchName);
+    ReentrantLock lock = playlistLocks.get(searchName);
 
-    if (requestedPlaylist != null) {
+    stateLog.begin();
 
-      playlists.remove(searchName);
+    lock.lock();
 
-      System.out.printf("Deleted playlist: %s%n", playlistName); 
+    try {
 
-    } else {
+      VideoPlaylist requestedPlaylist = playlists.get(searchName);
+
+      if (requestedPlaylist == null) {
+
+        System.out.printf("Cannot delete playlist %s: Playlist does not exist%n", playlistName);
+
+      } else if (!log(StateLog.DELETE_PLAYLIST, playlistName)) {
+
+        System.out.printf("Cannot delete playlist %s: %s%n", playlistName, CHANGE_NOT_SAVED);
+
+      } else {
+
+        playlists.remove(searchName);
+
+        System.out.printf("Deleted playlist: %s%n", playlistName); 
+
+      }
+
+    } finally {
+
+      lock.unlock();
 
-      System.out.printf("Cannot delete playlist %s: Playlist does not exist%n", playlistName);
+      stateLog.end();
 
     }
 
@@ -567,124 +919,233 @@ public class VideoPlayer {
    */
   public void searchVideos(String searchTerm) {
     
-    String search = searchTerm.toLowerCase();
-
-    // Get an editable version of the list
-    List<Video> currentVideos = videoLibrary.getVideos();
+    searchVideos(searchTerm, Paging.ALL);
+    
+  }
 
-    // Sort in lexicographical order by title before searching
-    Collections.sort(currentVideos);
 
-    Iterator<Video> iterator = currentVideos.iterator();
+  /** 
+   * Display one page of the videos whose titles contain the specified search term.
+   * 
+   * @param searchTerm
+   * @param paging
+   */
+  public void searchVideos(String searchTerm, Paging paging) {
+    
+    // Matching titles come from the title index, already in lexicographical order
+    showSearchResults(searchTerm, videoLibrary.searchVideos(searchTerm, paging));
+    
+  }
 
-    // Remove videos without the seach term
-    while (iterator.hasNext()) {
 
-      Video video = iterator.next();
+  /** 
+   * Display one page of the videos whose titles contain a match of the regular expression,
+   * ignoring case.
+   * 
+   * @param regex
+   * @param paging
+   */
+  public void searchVideosMatching(String regex, Paging paging) {
 
-      if (!video.getTitle().toLowerCase().contains(search) || video.isFlagged()) {
-        iterator.remove();
-      }
+    Pattern pattern;
 
+    try {
+      pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    } catch (PatternSyntaxException e) {
+      System.out.printf("Invalid pattern %s: %s%n", regex, e.getDescription());
+      return;
     }
 
-    if (currentVideos.size() > 0) {
+    // Matching titles come from a parallel scan, merged back into lexicographical order
+    showSearchResults(regex, videoLibrary.searchVideosMatching(pattern, paging));
 
-      System.out.printf("Here are the results for %s:%n", searchTerm);
+  }
 
-      // List out the query
-      for (int i = 0; i < currentVideos.size(); i++) {
+  
+  /** 
+   * Show all videos whose list of tags contains the specified hashtag.
+   * 
+   * @param videoTag
+   */
+  public void searchVideosWithTag(String videoTag) {
 
-        Video currentVideo = currentVideos.get(i);
+    searchVideosWithTag(videoTag, Paging.ALL);
 
-        System.out.printf("%d) %s%n", (i + 1), currentVideo.toString());
+  }
 
-      }
 
-      // Prompt the user
-      System.out.println("Would you like to play any of the above? If yes, specify the number of the video.");
+  /** 
+   * Show one page of the videos whose list of tags contains the specified hashtag.
+   * 
+   * @param videoTag
+   * @param paging
+   */
+  public void searchVideosWithTag(String videoTag, Paging paging) {
+    
+    // Check that the tag has the correct syntax - lazy method
+    if (!videoTag.contains("#")) {
 
-      System.out.println("If your answer is not a valid number, we will assume it's a no.");
+      System.out.printf("No search results for %s%n", videoTag);
 
-      // Read from the console
-      Scanner scanner = new Scanner(System.in);
+      return;
 
-      String line = scanner.next();
+    }
 
-      Integer position = null;
+    // Videos carrying exactly this tag, from the tag index in lexicographical order
+    showSearchResults(videoTag, videoLibrary.searchVideosWithTag(videoTag, paging));
 
-      // Check if the line is a number
-      try {
+  }
 
-        position = Integer.parseInt(line);
+  
+  /** 
+   * Show all videos whose tags match a boolean tag expression, e.g. "#cat AND #animal NOT #funny".
+   * 
+   * Tags are combined with AND, OR and NOT, and grouped with parentheses.
+   * 
+   * @param expression
+   */
+  public void searchVideosWithTags(String expression) {
 
-      } catch (NumberFormatException e) {
-        
-        // --
+    searchVideosWithTags(expression, Paging.ALL);
 
-      }
+  }
 
-      scanner.close();
 
-      if (position != null && currentVideos.size() >= position.intValue() && position > 0) {
+  /** 
+   * Show one page of the videos whose tags match a boolean tag expression.
+   * 
+   * @param expression
+   * @param paging
+   */
+  public void searchVideosWithTags(String expression, Paging paging) {
 
-        Video currentVideo = currentVideos.get(position.intValue() - 1);
+    TagQuery query;
 
-        playVideo(currentVideo.getVideoId());
+    try {
 
-      }
+      query = TagQuery.parse(expression);
 
-    } else {
+    } catch (IllegalArgumentException e) {
+
+      System.out.printf("Cannot search videos: Invalid tag expression (%s)%n", e.getMessage());
 
-      System.out.printf("No search results for %s%n", searchTerm);
+      return;
 
     }
-    
+
+    showSearchResults(expression, videoLibrary.searchVideosWithTags(query, paging));
+
   }
 
   
   /** 
-   * Show all videos whose list of tags contains the specified hashtag.
+   * Display the videos most relevant to the search term, best first, judging by the words of
+   * their titles and tags.
    * 
-   * @param videoTag
+   * @param searchTerm
+   * @param count the maximum number of videos to display
    */
-  public void searchVideosWithTag(String videoTag) {
-    
-    String searchTag = videoTag.toLowerCase();
+  public void searchVideosRanked(String searchTerm, int count) {
 
-    // Get an editable version of the list
-    List<Video> currentVideos = videoLibrary.getVideos();
+    List<Video> currentVideos = videoLibrary.searchVideosRanked(searchTerm, count);
 
-    // Sort in lexicographical order by title before searching
-    Collections.sort(currentVideos);
+    showSearchResults(searchTerm, new ResultPage(currentVideos, 0, null));
 
-    Iterator<Video> iterator = currentVideos.iterator();
+  }
 
-    // Remove videos without the seach term
-    while (iterator.hasNext()) {
+  
+  /** 
+   * Display all videos whose titles match the search term despite typos, closest matches first.
+   * 
+   * Every word of the search term must be within the given number of edits of a word of the title;
+   * a negative number picks one by word length.
+   * 
+   * @param searchTerm
+   * @param maxEdits
+   */
+  public void searchVideosFuzzy(String searchTerm, int maxEdits) {
 
-      Video video = iterator.next();
+    List<Video> currentVideos = videoLibrary.searchVideosFuzzy(searchTerm, maxEdits);
 
-      if (!video.getTagsString().toLowerCase().contains(searchTag) || video.isFlagged()) {
-        iterator.remove();
-      }
+    showSearchResults(searchTerm, new ResultPage(currentVideos, 0, null));
+
+  }
+
+  
+  /** 
+   * Suggest up to the given number of videos whose titles start with the prefix, ignoring case,
+   * in lexicographical order, e.g. to complete what the user is typing.
+   * 
+   * @param prefix
+   * @param count
+   */
+  public void suggest(String prefix, int count) {
+
+    List<Video> suggestions = videoLibrary.suggest(prefix, count);
+
+    if (suggestions.isEmpty()) {
+
+      System.out.printf("No suggestions for %s%n", prefix);
+
+      return;
 
     }
 
-    // Check that the tag has the correct syntax - lazy method
-    if (currentVideos.size() > 0 && videoTag.contains("#")) {
+    System.out.printf("Here are the suggestions for %s:%n", prefix);
+
+    for (Video suggestion : suggestions) {
+
+      System.out.printf("%s (%s)%n", suggestion.getTitle(), suggestion.getVideoId());
 
-      System.out.printf("Here are the results for %s:%n", videoTag);
+    }
+
+  }
+
+  
+  /** 
+   * Print how well the search result cache is doing.
+   */
+  public void showCacheStats() {
+
+    SearchCache cache = videoLibrary.getSearchCache();
+
+    System.out.printf("Search cache: %d results, hit ratio %.1f%% (%d hits, %d misses), %d evictions, %d invalidations%n",
+        cache.size(), cache.getHitRatio() * 100, cache.getHits(), cache.getMisses(),
+        cache.getEvictions(), cache.getInvalidations());
+
+  }
+
+  
+  /** 
+   * List the results of a search by number and ask the user if they'd like to play one of them.
+   * 
+   * Results are numbered by their position among all the results, so the second page of ten
+   * starts at 11, and the answer is read the same way.
+   * 
+   * @param query
+   * @param page
+   */
+  private void showSearchResults(String query, ResultPage page) {
+
+    List<Video> currentVideos = page.getVideos();
+
+    int first = page.getPosition() + 1;
+
+    if (currentVideos.size() > 0) {
+
+      System.out.printf("Here are the results for %s:%n", query);
 
       // List out the query
       for (int i = 0; i < currentVideos.size(); i++) {
 
         Video currentVideo = currentVideos.get(i);
 
-        System.out.printf("%d) %s%n", (i + 1), currentVideo.toString());
+        System.out.printf("%d) %s%n", (first + i), currentVideo.toString());
 
       }
 
+      showNextPage(page);
+
       // Prompt the user
       System.out.println("Would you like to play any of the above? If yes, specify the number of the video.");
 
@@ -710,9 +1171,9 @@ public class VideoPlayer {
 
       scanner.close();
 
-      if (position != null && currentVideos.size() >= position.intValue() && position >= 0) {
+      if (position != null && position >= first && position < first + currentVideos.size()) {
 
-        Video currentVideo = currentVideos.get(position.intValue() - 1);
+        Video currentVideo = currentVideos.get(position.intValue() - first);
 
         playVideo(currentVideo.getVideoId());
 
@@ -720,7 +1181,23 @@ public class VideoPlayer {
 
     } else {
 
-      System.out.printf("No search results for %s%n", videoTag);
+      System.out.printf("No search results for %s%n", query);
+
+    }
+
+  }
+
+  
+  /** 
+   * Tell the user how to get the next page, if there is one.
+   * 
+   * @param page
+   */
+  private void showNextPage(ResultPage page) {
+
+    if (page.getNext() != null) {
+
+      System.out.printf("More results available: repeat the command with AFTER %s%n", page.getNext().encode());
 
     }
 
@@ -763,13 +1240,41 @@ public class VideoPlayer {
 
     if (requestedVideo != null) {
 
-      if (requestedVideo.equals(video)) {
-        stopVideo();
+      int ordinal = requestedVideo.getOrdinal();
+
+      // Flag first, so that no session can start playing it once it is stopped
+      boolean success;
+
+      stateLog.begin();
+
+      try {
+
+        success = requestedVideo.flag(reason);
+
+        if (success && !log(StateLog.FLAG_VIDEO, requestedVideo.getVideoId(), reason)) {
+
+          requestedVideo.unflag();
+
+          System.out.printf("Cannot flag video: %s%n", CHANGE_NOT_SAVED);
+
+          return;
+
+        }
+
+      } finally {
+
+        stateLog.end();
+
       }
 
-      boolean success = requestedVideo.flag(reason);
+      long previous = session.stopIf(playingOrdinal -> playingOrdinal == ordinal);
+
+      if (PlaybackSessions.isPlaying(previous) && PlaybackSessions.ordinal(previous) == ordinal) {
+        System.out.printf(STOPPING_VIDEO + ": %s%n", requestedVideo.getTitle());
+      }
 
       if (success) {
+        sessions.stopIf(playingOrdinal -> playingOrdinal == ordinal);
         System.out.printf("Successfully flagged video: %s (reason: %s)%n", requestedVideo.getTitle(), reason);
       } else {
         System.out.println("Cannot flag video: Video is already flagged");
@@ -797,7 +1302,31 @@ public class VideoPlayer {
 
     if (requestedVideo != null) {
 
-      boolean success = requestedVideo.unflag();
+      boolean success;
+
+      stateLog.begin();
+
+      try {
+
+        String reason = requestedVideo.getFlagReason();
+
+        success = requestedVideo.unflag();
+
+        if (success && !log(StateLog.ALLOW_VIDEO, requestedVideo.getVideoId())) {
+
+          requestedVideo.flag(reason);
+
+          System.out.printf("Cannot remove flag from video: %s%n", CHANGE_NOT_SAVED);
+
+          return;
+
+        }
+
+      } finally {
+
+        stateLog.end();
+
+      }
 
       if (success) {
         System.out.printf("Successfully removed flag from video: %s%n", requestedVideo.getTitle());
@@ -813,4 +1342,222 @@ public class VideoPlayer {
     
   }
 
-}
\ No newline at end of file
+
+  /** 
+   * ------------------------------------
+   * PERSISTENCE
+   * ------------------------------------
+   */
+
+  /** 
+   * Logs a change to the playlists or flags, returning once it is on disk. Playlist
+   * changes are logged before they are applied, and flag changes undone if they cannot be
+   * logged, so that a change is only applied and reported once it would survive a crash.
+   * 
+   * @param operation
+   * @param arguments
+   * @return false if the change could not be saved
+   */
+  private boolean log(byte operation, String... arguments) {
+
+    try {
+      stateLog.append(operation, arguments);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+
+  }
+
+
+  /** 
+   * Applies a change read back from the state log, without logging it again. Changes to
+   * videos no longer in the catalog are skipped.
+   * 
+   * @param operation
+   * @param arguments
+   */
+  private void replay(byte operation, String... arguments) {
+
+    VideoPlaylist playlist = null;
+    Video video = null;
+
+    if (operation == StateLog.FLAG_VIDEO || operation == StateLog.ALLOW_VIDEO) {
+      video = videoLibrary.getVideo(arguments[0]);
+    } else {
+      playlist = playlists.get(SearchKey.fold(arguments[0]));
+      video = arguments.length > 1 ? videoLibrary.getVideo(arguments[1]) : null;
+    }
+
+    switch (operation) {
+      case StateLog.CREATE_PLAYLIST:
+        playlists.putIfAbsent(SearchKey.fold(arguments[0]), new VideoPlaylist(arguments[0]));
+        break;
+      case StateLog.ADD_VIDEO:
+        if (playlist != null && video != null) {
+          playlist.addVideo(video);
+        }
+        break;
+      case StateLog.REMOVE_VIDEO:
+        if (playlist != null && video != null) {
+          playlist.removeVideo(video);
+        }
+        break;
+      case StateLog.CLEAR_PLAYLIST:
+        if (playlist != null) {
+          playlist.clear();
+        }
+        break;
+      case StateLog.DELETE_PLAYLIST:
+        playlists.remove(SearchKey.fold(arguments[0]));
+        break;
+      case StateLog.FLAG_VIDEO:
+        if (video != null) {
+          video.flag(arguments[1]);
+        }
+        break;
+      case StateLog.ALLOW_VIDEO:
+        if (video != null) {
+          video.unflag();
+        }
+        break;
+      default:
+        break;
+    }
+
+  }
+
+
+  /** 
+   * Writes the playlists, in order, and the flags as the changes that rebuild them, for a
+   * snapshot of the state log.
+   * 
+   * @param out
+   * @throws IOException
+   */
+  private void writeState(StateLog.Handler out) throws IOException {
+
+    VideoCatalog catalog = videoLibrary.getCatalog();
+
+    for (VideoPlaylist playlist : playlists.values()) {
+
+      out.accept(StateLog.CREATE_PLAYLIST, playlist.getName());
+
+      for (Video video : playlist.getVideos(catalog)) {
+        out.accept(StateLog.ADD_VIDEO, playlist.getName(), video.getVideoId());
+      }
+
+    }
+
+    for (Video video : videoLibrary.getFlaggedVideos()) {
+      out.accept(StateLog.FLAG_VIDEO, video.getVideoId(), video.getFlagReason());
+    }
+
+  }
+
+
+  /** 
+   * Returns the video a session state is playing, or null if it plays none.
+   * 
+   * @param state
+   * @return Video
+   */
+  private Video playing(long state) {
+
+    if (!PlaybackSessions.isPlaying(state)) {
+      return null;
+    }
+
+    return videoLibrary.getVideo(PlaybackSessions.ordinal(state));
+
+  }
+
+
+  /** 
+   * ------------------------------------
+   * CATALOG RELOAD
+   * ------------------------------------
+   */
+
+  /** 
+   * Re-reads the video catalog and applies the changes without losing any state.
+   * 
+   * Videos removed from the catalog are dropped from every playlist and stopped if they are
+   * playing; changed videos are swapped for their new version everywhere. It may run on a
+   * background thread, so its messages are left for {@link #printNotices}.
+   * 
+   */
+  public void reloadCatalog() {
+
+    Video playing = playing(session.state());
+
+    CatalogDelta delta = videoLibrary.reload();
+
+    if (delta == null || delta.isEmpty()) {
+      return;
+    }
+
+    // Changed videos keep their ordinal, so playlists and sessions only need to drop
+    // removed ones. Each playlist is reconciled under its stripe, so that no command adds
+    // a removed video back in between
+    stateLog.begin();
+
+    try {
+
+      for (Map.Entry<String, VideoPlaylist> entry : playlists.entrySet()) {
+
+        ReentrantLock lock = playlistLocks.get(entry.getKey());
+
+        lock.lock();
+
+        try {
+          entry.getValue().reconcile(ordinal -> videoLibrary.getVideo(ordinal) == null);
+        } finally {
+          lock.unlock();
+        }
+
+      }
+
+    } finally {
+
+      stateLog.end();
+
+    }
+
+    if (playing != null && delta.getRemoved().contains(playing.getVideoId())) {
+
+      notices.add(String.format(STOPPING_VIDEO + ": %s", playing.getTitle()));
+
+    }
+
+    sessions.stopIf(ordinal -> videoLibrary.getVideo(ordinal) == null);
+
+    // Dropping removed videos from playlists and flags is not logged, so the state is
+    // snapshotted as it is now instead of replaying changes to videos that may come back
+    if (!delta.getRemoved().isEmpty()) {
+      try {
+        stateLog.checkpoint();
+      } catch (IOException e) {
+        notices.add(String.format("Couldn't write state snapshot after reload: %s", e.getMessage()));
+      }
+    }
+
+    notices.add(String.format("Reloaded video catalog: %s", delta));
+
+  }
+
+
+  /** 
+   * Prints the messages left by background work since the last call, such as a catalog
+   * reload run by the watcher thread. Called by the command loop between commands, so
+   * that they never interleave with the output of one.
+   */
+  public void printNotices() {
+
+    for (String notice = notices.poll(); notice != null; notice = notices.poll()) {
+      System.out.println(notice);
+    }
+
+  }
+
+}
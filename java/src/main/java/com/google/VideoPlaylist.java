@@ -1,56 +1,293 @@
 package com.google;
 
 import java.util.*;
+import java.util.function.IntPredicate;
 
-/** A class used to represent a Playlist */
+/**
+ * A class used to represent a Playlist
+ *
+ * The videos are kept as their catalog ordinals in an int array, in the order they were
+ * added, and resolved against the catalog when listed. Ordinals are stable across reloads,
+ * so a changed video shows in its new version without touching the playlist.
+ *
+ * Playlists of up to 64 videos, nearly all of them, check membership by scanning the
+ * array, which costs 4 to 6 bytes per video. Larger ones also keep an open-addressing hash
+ * set of the ordinals, linear probing in an int table sized to 1.5 times the videos and
+ * grown at 80% full, for about 10 to 12 bytes per video in all. A LinkedHashSet of boxed
+ * ordinals costs some 60 bytes per video.
+ */
 class VideoPlaylist {
 
+    // Up to this many videos, a scan of the array (four cache lines) is about as fast as a
+    // hash lookup
+    static final int SCAN_LIMIT = 64;
+
+    private static final int EMPTY = -1;
+
     private final String name;
-    private final LinkedHashSet<Video> videos;
+    private int[] ordinals;
+    private int size;
+
+    // The ordinals hashed by linear probing, EMPTY in free slots; null while small. Its
+    // length need not be a power of two, as hashes are mapped onto it by multiplication
+    private int[] table;
 
     VideoPlaylist(String name) {
 
         this.name = name;
-        videos = new LinkedHashSet<Video>();
+        ordinals = new int[4];
 
     }
 
-    
-    /** 
+
+    /**
      * @return String
      */
     public String getName() {
         return name;
     }
 
-    
-    /** 
-     * @return Set<Video>
+
+    /**
+     * Returns the videos in the order they were added, as a copy so callers can iterate
+     * it while the playlist changes. Videos no longer in the catalog are left out.
+     *
+     * @param catalog
+     * @return List<Video>
      */
-    public Set<Video> getVideos() {
+    public synchronized List<Video> getVideos(VideoCatalog catalog) {
+
+        List<Video> videos = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+
+            Video video = ordinals[i] < catalog.ordinalCount() ? catalog.getVideo(ordinals[i]) : null;
+
+            if (video != null) {
+                videos.add(video);
+            }
+
+        }
+
         return videos;
+
     }
 
-    
-    /** 
+
+    /**
+     * @return int
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+
+    /**
+     * @param video
+     * @return boolean
+     */
+    public synchronized boolean containsVideo(Video video) {
+        return contains(video.getOrdinal());
+    }
+
+
+    /**
      * @param video
      * @return boolean
      */
-    public boolean addVideo(Video video) {
-        return videos.add(video);
+    public synchronized boolean addVideo(Video video) {
+
+        int ordinal = video.getOrdinal();
+
+        if (contains(ordinal)) {
+            return false;
+        }
+
+        if (size == ordinals.length) {
+            ordinals = Arrays.copyOf(ordinals, size + (size >> 1) + 1);
+        }
+
+        ordinals[size++] = ordinal;
+
+        if (table != null && size * 5 > table.length * 4) {
+            rehash();
+        } else if (table != null) {
+            insert(table, ordinal);
+        } else if (size > SCAN_LIMIT) {
+            rehash();
+        }
+
+        return true;
+
     }
 
-    
-    /** 
+
+    /**
      * @param video
      * @return boolean
      */
-    public boolean removeVideo(Video video) {
-        return videos.remove(video);
+    public synchronized boolean removeVideo(Video video) {
+
+        int ordinal = video.getOrdinal();
+
+        int index = indexOf(ordinal);
+
+        if (index < 0) {
+            return false;
+        }
+
+        System.arraycopy(ordinals, index + 1, ordinals, index, size - index - 1);
+        size--;
+
+        if (table != null) {
+            delete(ordinal);
+        }
+
+        return true;
+
     }
 
-    public void clear() {
-        videos.clear();
+    public synchronized void clear() {
+
+        ordinals = new int[4];
+        size = 0;
+        table = null;
+
+    }
+
+
+    /**
+     * Drops the videos whose ordinal satisfies the predicate, e.g. those removed from the
+     * catalog, keeping the order of the rest.
+     *
+     * @param removed
+     */
+    public synchronized void reconcile(IntPredicate removed) {
+
+        int kept = 0;
+
+        for (int i = 0; i < size; i++) {
+
+            if (!removed.test(ordinals[i])) {
+                ordinals[kept++] = ordinals[i];
+            }
+
+        }
+
+        if (kept == size) {
+            return;
+        }
+
+        size = kept;
+
+        if (table != null) {
+            table = null;
+            if (size > SCAN_LIMIT) {
+                rehash();
+            }
+        }
+
+    }
+
+    private boolean contains(int ordinal) {
+
+        if (table == null) {
+            return indexOf(ordinal) >= 0;
+        }
+
+        for (int slot = home(table, ordinal); table[slot] != EMPTY; slot = next(table, slot)) {
+            if (table[slot] == ordinal) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    private int indexOf(int ordinal) {
+
+        for (int i = 0; i < size; i++) {
+            if (ordinals[i] == ordinal) {
+                return i;
+            }
+        }
+
+        return -1;
+
+    }
+
+    /** Builds the table anew at 1.5 times the videos, so it starts two thirds full. */
+    private void rehash() {
+
+        table = new int[size + (size >> 1) + 1];
+        Arrays.fill(table, EMPTY);
+
+        for (int i = 0; i < size; i++) {
+            insert(table, ordinals[i]);
+        }
+
+    }
+
+    private static void insert(int[] table, int ordinal) {
+
+        int slot = home(table, ordinal);
+
+        while (table[slot] != EMPTY) {
+            slot = next(table, slot);
+        }
+
+        table[slot] = ordinal;
+
+    }
+
+    /** Removes the ordinal from the table, shifting back the entries probed past it. */
+    private void delete(int ordinal) {
+
+        int length = table.length;
+        int slot = home(table, ordinal);
+
+        while (table[slot] != ordinal) {
+            slot = next(table, slot);
+        }
+
+        // Move later entries of the probe run into the hole unless they would end up before
+        // their home slot, so that lookups never stop early at an empty slot
+        for (int next = next(table, slot); table[next] != EMPTY; next = next(table, next)) {
+
+            int home = home(table, table[next]);
+
+            if (Math.floorMod(next - home, length) >= Math.floorMod(next - slot, length)) {
+                table[slot] = table[next];
+                slot = next;
+            }
+
+        }
+
+        table[slot] = EMPTY;
+
+    }
+
+    /** Returns the slot where the probe run of the ordinal starts. */
+    private static int home(int[] table, int ordinal) {
+        // Ordinals are dense, so spread runs of them over the table instead of one probe
+        // run, then map the hash onto the table by its high bits
+        long hash = (ordinal * 0x9E3779B9) & 0xFFFFFFFFL;
+        return (int) ((hash * table.length) >>> 32);
+    }
+
+    private static int next(int[] table, int slot) {
+        return slot + 1 < table.length ? slot + 1 : 0;
+    }
+
+    /**
+     * Returns about how many bytes the playlist takes beyond its name, for its ordinals,
+     * its table and their array headers.
+     *
+     * @return long
+     */
+    synchronized long footprint() {
+        return 16 + 4L * ordinals.length + (table != null ? 16 + 4L * table.length : 0);
     }
 
 }
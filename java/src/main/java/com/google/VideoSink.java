@@ -0,0 +1,12 @@
+package com.google;
+
+/**
+ * Receives the videos parsed from a catalog, field by field, so that loaders do not need
+ * to create an object per video.
+ */
+@FunctionalInterface
+interface VideoSink {
+
+  void accept(String title, String videoId, int[] tagIds);
+
+}
@@ -0,0 +1,69 @@
+package com.google;
+
+/**
+ * Storage for the videos of a catalog, addressed by dense ordinals.
+ *
+ * A store is immutable once built. Ordinals are never reused: removing a video leaves a
+ * hole, so that an ordinal keeps naming the same video across catalog reloads.
+ */
+interface VideoStore {
+
+  /** Returns the number of ordinals, including those of removed videos. */
+  int size();
+
+  /** Returns the id of the video, or null if the ordinal was removed. */
+  String getVideoId(int ordinal);
+
+  /** Returns the title of the video. The ordinal must not have been removed. */
+  String getTitle(int ordinal);
+
+  /**
+   * Returns the case-folded title of the video as UTF-8, computed when the video was added.
+   * The ordinal must not have been removed. Do not modify.
+   */
+  byte[] getTitleKey(int ordinal);
+
+  /**
+   * Returns true if the case-folded title of the video contains the folded term, given as
+   * UTF-8, without allocating. The ordinal must not have been removed.
+   */
+  boolean titleKeyContains(int ordinal, byte[] foldedTerm);
+
+  /**
+   * Compares two videos by title, then by id, like {@link Video#compareTo}, reading them
+   * in place. Neither ordinal may have been removed.
+   */
+  int compareByTitle(int a, int b);
+
+  /**
+   * Compares the case-folded titles of two videos, like {@link SearchKey#compare}, reading
+   * them in place. Neither ordinal may have been removed.
+   */
+  int compareTitleKeys(int a, int b);
+
+  /** Returns the tag ids of the video. The ordinal must not have been removed. */
+  int[] getTagIds(int ordinal);
+
+  /** Returns the video with the given ordinal, or null if it was removed. */
+  Video getVideo(int ordinal);
+
+  /** Returns a builder starting from the contents of this store, which is left untouched. */
+  Builder toBuilder();
+
+  /** Builds a store one video at a time. */
+  interface Builder {
+
+    /** Adds a video under the next free ordinal and returns that ordinal. */
+    int add(String title, String videoId, int[] tagIds);
+
+    /** Replaces the video stored under an existing ordinal. */
+    void set(int ordinal, String title, String videoId, int[] tagIds);
+
+    /** Removes the video stored under the ordinal, leaving a hole. */
+    void remove(int ordinal);
+
+    VideoStore build();
+
+  }
+
+}
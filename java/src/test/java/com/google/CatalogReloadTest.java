@@ -0,0 +1,57 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CatalogReloadTest extends TestBase {
+
+  @Test
+  public void testReloadReconcilesPlaylistsAndPlayingVideo(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Cats | cats_id | #cat\nDogs | dogs_id | #dog\n");
+    videoPlayer = new VideoPlayer(new VideoLibrary(catalog));
+
+    videoPlayer.createPlaylist("my_playlist");
+    videoPlayer.addVideoToPlaylist("my_playlist", "cats_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "dogs_id");
+    videoPlayer.playVideo("cats_id");
+
+    Files.writeString(catalog, "Dogs 2 | dogs_id | #dog\nBirds | birds_id | #bird\n");
+    videoPlayer.reloadCatalog();
+    videoPlayer.printNotices();
+    videoPlayer.showPlaylist("my_playlist");
+    videoPlayer.showPlaying();
+
+    var lines = getOutputLines();
+    assertEquals(9, lines.length, outputStream.toString());
+    assertThat(lines[4], containsString("Stopping video: Cats"));
+    assertThat(lines[5], containsString("Reloaded video catalog: 1 added, 1 removed, 1 changed"));
+    assertThat(lines[6], containsString("Showing playlist: my_playlist"));
+    assertThat(lines[7], containsString("Dogs 2 (dogs_id) [#dog]"));
+    assertThat(lines[8], containsString("No video is currently playing"));
+  }
+
+  @Test
+  public void testReloadMessagesWaitForTheCommandLoop(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Cats | cats_id | #cat\n");
+    videoPlayer = new VideoPlayer(new VideoLibrary(catalog));
+
+    Files.writeString(catalog, "Cats | cats_id | #cat\nDogs | dogs_id | #dog\n");
+    videoPlayer.reloadCatalog();
+    assertEquals("", outputStream.toString());
+
+    videoPlayer.printNotices();
+    videoPlayer.printNotices();
+    var lines = getOutputLines();
+    assertEquals(1, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Reloaded video catalog: 1 added, 0 removed, 0 changed"));
+  }
+}
@@ -0,0 +1,85 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+public class ConcurrentPlayerTest extends TestBase {
+
+  @Test
+  public void testRacingCreatesMakeOnePlaylist() throws Exception {
+    runConcurrently(16, thread -> videoPlayer.createPlaylist(thread % 2 == 0 ? "Mix" : "MIX"));
+
+    assertEquals(1, count("Successfully created new playlist"));
+    assertEquals(15, count("Cannot create playlist: A playlist with the same name already exists"));
+  }
+
+  @Test
+  public void testPlaylistChangesFromManyThreads() throws Exception {
+    String[] videoIds = {"amazing_cats_video_id", "another_cat_video_id", "funny_dogs_video_id",
+        "life_at_google_video_id", "nothing_video_id"};
+
+    runConcurrently(8, thread -> {
+      String name = "list_" + thread;
+      for (int round = 0; round < 50; round++) {
+        videoPlayer.createPlaylist(name);
+        for (String videoId : videoIds) {
+          videoPlayer.addVideoToPlaylist(name, videoId);
+          videoPlayer.addVideoToPlaylist("shared", videoId);
+        }
+        videoPlayer.removeFromPlaylist(name, videoIds[round % videoIds.length]);
+        videoPlayer.showAllVideos(Paging.parse(List.of("LIMIT", "1")));
+        videoPlayer.deletePlaylist(name);
+      }
+    }, () -> videoPlayer.createPlaylist("shared"));
+
+    assertEquals(8 * 50 + 1, count("Successfully created new playlist"));
+    assertEquals(8 * 50, count("Deleted playlist"));
+    assertEquals(videoIds.length, count("Added video to shared"));
+
+    outputStream.reset();
+    videoPlayer.showAllPlaylists();
+    assertEquals(Arrays.asList("Showing all playlists:", "shared"),
+        Arrays.asList(getOutputLines()));
+  }
+
+  private long count(String prefix) {
+    return Arrays.stream(getOutputLines()).filter(line -> line.startsWith(prefix)).count();
+  }
+
+  private interface ThreadBody {
+    void run(int thread);
+  }
+
+  private static void runConcurrently(int threads, ThreadBody body) throws Exception {
+    runConcurrently(threads, body, () -> { });
+  }
+
+  private static void runConcurrently(int threads, ThreadBody body, Runnable first)
+      throws Exception {
+    first.run();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Callable<Void>> tasks = new ArrayList<>();
+      for (int thread = 0; thread < threads; thread++) {
+        int id = thread;
+        tasks.add(() -> {
+          body.run(id);
+          return null;
+        });
+      }
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class EligibleVideosTest {
+
+  @Test
+  public void testRandomVideoFollowsFlags() {
+    var library = new VideoLibrary();
+    assertEquals(5, picked(library).size());
+
+    library.getVideo("amazing_cats_video_id").flag("dont_like_cats");
+    library.getVideo("another_cat_video_id").flag("dont_like_cats");
+    assertEquals(Set.of("funny_dogs_video_id", "life_at_google_video_id", "nothing_video_id"),
+        picked(library));
+
+    library.getVideo("funny_dogs_video_id").flag("dont_like_dogs");
+    library.getVideo("life_at_google_video_id").flag("dont_like_work");
+    library.getVideo("nothing_video_id").flag("dont_like_nothing");
+    assertNull(library.getRandomVideo());
+
+    library.getVideo("another_cat_video_id").unflag();
+    assertEquals(Set.of("another_cat_video_id"), picked(library));
+  }
+
+  @Test
+  public void testRandomVideoFollowsReloads(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "A | a_id |\nB | b_id |\nC | c_id |\n");
+    var library = new VideoLibrary(catalog);
+    library.getVideo("c_id").flag("dont_like_it");
+
+    Files.writeString(catalog, "B | b_id |\nC | c_id |\nD | d_id |\n");
+    library.reload();
+
+    assertEquals(Set.of("b_id", "d_id"), picked(library));
+  }
+
+  @Test
+  public void testRandomPicksDuringFlagChanges() throws InterruptedException {
+    var library = new VideoLibrary();
+    library.getVideo("nothing_video_id").flag("dont_like_nothing");
+    Video toggled = library.getVideo("amazing_cats_video_id");
+
+    var failures = new AtomicInteger();
+    Thread[] pickers = new Thread[4];
+    for (int i = 0; i < pickers.length; i++) {
+      pickers[i] = new Thread(() -> {
+        for (int j = 0; j < 20_000; j++) {
+          Video video = library.getRandomVideo();
+          if (video == null || video.getVideoId().equals("nothing_video_id")) {
+            failures.incrementAndGet();
+          }
+        }
+      });
+      pickers[i].start();
+    }
+    for (int i = 0; i < 2_000; i++) {
+      toggled.flag("dont_like_cats");
+      toggled.unflag();
+    }
+    for (Thread picker : pickers) {
+      picker.join();
+    }
+
+    assertEquals(0, failures.get());
+  }
+
+  private static Set<String> picked(VideoLibrary library) {
+    Set<String> videoIds = new HashSet<>();
+    for (int i = 0; i < 500; i++) {
+      videoIds.add(library.getRandomVideo().getVideoId());
+    }
+    return videoIds;
+  }
+}
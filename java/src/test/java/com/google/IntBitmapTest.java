@@ -0,0 +1,70 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class IntBitmapTest {
+
+  @Test
+  public void testSetOperationsMatchBitSet() {
+    var random = new Random(11);
+    // Sparse and dense groups, so that both array and bitmap containers take part
+    for (int round = 0; round < 20; round++) {
+      BitSet a = randomSet(random);
+      BitSet b = randomSet(random);
+      IntBitmap left = IntBitmap.of(a.stream().toArray());
+      IntBitmap right = IntBitmap.of(b.stream().toArray());
+
+      BitSet and = (BitSet) a.clone();
+      and.and(b);
+      BitSet or = (BitSet) a.clone();
+      or.or(b);
+      BitSet andNot = (BitSet) a.clone();
+      andNot.andNot(b);
+
+      assertArrayEquals(a.stream().toArray(), left.toArray());
+      assertArrayEquals(and.stream().toArray(), left.and(right).toArray());
+      assertArrayEquals(or.stream().toArray(), left.or(right).toArray());
+      assertArrayEquals(andNot.stream().toArray(), left.andNot(right).toArray());
+      assertEquals(or.cardinality(), left.or(right).cardinality());
+      for (int from = 0; from < 4 << 16; from += 997) {
+        assertEquals(a.nextSetBit(from), left.next(from));
+      }
+    }
+  }
+
+  @Test
+  public void testContains() {
+    IntBitmap bitmap = IntBitmap.of(1, 70_000, 70_001, 1 << 30);
+
+    assertEquals(4, bitmap.cardinality());
+    assertTrue(bitmap.contains(70_001));
+    assertTrue(bitmap.contains(1 << 30));
+    assertFalse(bitmap.contains(2));
+    assertFalse(IntBitmap.EMPTY.contains(1));
+
+    assertEquals(70_000, bitmap.next(2));
+    assertEquals(70_001, bitmap.next(70_001));
+    assertEquals(1 << 30, bitmap.next(70_002));
+    assertEquals(-1, bitmap.next((1 << 30) + 1));
+  }
+
+  private static BitSet randomSet(Random random) {
+    BitSet set = new BitSet();
+    for (int group = 0; group < 4; group++) {
+      double density = random.nextInt(3) == 0 ? 0.5 : 0.01;
+      for (int low = 0; low < 1 << 16; low++) {
+        if (random.nextDouble() < density) {
+          set.set((group << 16) | low);
+        }
+      }
+    }
+    return set;
+  }
+}
@@ -0,0 +1,107 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PagingTest extends TestBase {
+
+  @Test
+  public void testOffsetNumbersResultsByGlobalPosition(@TempDir Path dir) throws IOException {
+    var player = new VideoPlayer(new VideoLibrary(catalog(dir)));
+    setInput("4");
+
+    player.searchVideos("video", Paging.parse(List.of("LIMIT", "2", "OFFSET", "2")));
+
+    var lines = getOutputLines();
+    assertThat(lines[0], containsString("Here are the results for video:"));
+    assertThat(lines[1], containsString("3) Video 2 (video_2) []"));
+    assertThat(lines[2], containsString("4) Video 3 (video_3) []"));
+    assertThat(lines[3], containsString("More results available: repeat the command with AFTER "));
+    assertThat(lines[6], containsString("Playing video: Video 3"));
+  }
+
+  @Test
+  public void testCursorContinuesWhereThePageEnded(@TempDir Path dir) throws IOException {
+    var library = new VideoLibrary(catalog(dir));
+    library.getVideo("video_3").flag("dont_like_it");
+
+    ResultPage first = library.searchVideos("video", Paging.parse(List.of("limit", "3")));
+    assertEquals(List.of("video_0", "video_1", "video_2"), ids(first));
+
+    String cursor = first.getNext().encode();
+    ResultPage second =
+        library.searchVideos("video", Paging.parse(List.of("LIMIT", "3", "AFTER", cursor)));
+    assertEquals(3, second.getPosition());
+    assertEquals(List.of("video_4", "video_5"), ids(second));
+    assertNull(second.getNext());
+
+    // Paging over all videos includes the flagged ones
+    ResultPage all =
+        library.getVideosByTitle(Paging.parse(List.of("LIMIT", "2", "AFTER", cursor)));
+    assertEquals(List.of("video_3", "video_4"), ids(all));
+  }
+
+  @Test
+  public void testCommandParserReadsPagingOptions(@TempDir Path dir) throws IOException {
+    var parser = new CommandParser(new VideoPlayer(new VideoLibrary(catalog(dir))));
+
+    parser.executeCommand(List.of("SHOW_ALL_VIDEOS", "LIMIT", "1", "OFFSET", "5"));
+    parser.executeCommand(List.of("SHOW_ALL_VIDEOS", "LIMIT", "none"));
+
+    var lines = getOutputLines();
+    assertEquals(3, lines.length, outputStream.toString());
+    assertThat(lines[1], containsString("Video 5 (video_5) []"));
+    assertThat(outputStream.toString(), not(containsString("More results")));
+    assertThat(lines[2], containsString("Invalid paging options"));
+  }
+
+  @Test
+  public void testExtraWordsAreIgnored(@TempDir Path dir) throws IOException {
+    var parser = new CommandParser(new VideoPlayer(new VideoLibrary(catalog(dir))));
+
+    setInput("No");
+    parser.executeCommand(List.of("SEARCH_VIDEOS", "video", "extra", "words"));
+    parser.executeCommand(List.of("SHOW_ALL_VIDEOS", "please", "LIMIT", "1", "now", "LIMIT"));
+
+    var lines = getOutputLines();
+    assertThat(outputStream.toString(), not(containsString("Invalid paging options")));
+    assertThat(lines[0], containsString("Here are the results for video:"));
+    assertThat(outputStream.toString(), containsString("More results"));
+    assertEquals(Integer.MAX_VALUE, Paging.parse(List.of("LIMIT")).getLimit());
+  }
+
+  @Test
+  public void testMalformedOptions() {
+    assertThrows(IllegalArgumentException.class, () -> Paging.parse(List.of("LIMIT", "0")));
+    assertThrows(IllegalArgumentException.class, () -> Paging.parse(List.of("AFTER", "!!")));
+    String cursor = new Paging.Cursor(1, "a", "b").encode();
+    assertThrows(IllegalArgumentException.class,
+        () -> Paging.parse(List.of("OFFSET", "1", "AFTER", cursor)));
+  }
+
+  private static Path catalog(Path dir) throws IOException {
+    StringBuilder videos = new StringBuilder();
+    for (int i = 5; i >= 0; i--) {
+      videos.append("Video ").append(i).append(" | video_").append(i).append(" |\n");
+    }
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, videos);
+    return catalog;
+  }
+
+  private static List<String> ids(ResultPage page) {
+    return page.getVideos().stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+}
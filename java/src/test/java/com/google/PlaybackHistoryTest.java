@@ -0,0 +1,61 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class PlaybackHistoryTest extends TestBase {
+
+  @Test
+  public void testRingKeepsTheMostRecentEntries() {
+    var history = new PlaybackHistory(4);
+    assertEquals(0, history.size());
+    for (int ordinal = 0; ordinal < 10; ordinal++) {
+      history.add(ordinal, 1_000L * ordinal, 10L * ordinal);
+    }
+
+    assertEquals(4, history.size());
+    assertEquals(9, history.ordinal(0));
+    assertEquals(6, history.ordinal(3));
+    assertEquals(8_000, history.time(1));
+    assertEquals(70, history.position(2));
+  }
+
+  @Test
+  public void testPreviousResumesWhereTheVideoStopped() {
+    var clock = new AtomicLong(1_000_000);
+    var player = new VideoPlayer(new VideoLibrary(), new PlaybackSessions(clock::get), "me");
+
+    player.playVideo("amazing_cats_video_id");
+    clock.addAndGet(30_000);
+    player.pauseVideo();
+    clock.addAndGet(600_000);
+    player.continueVideo();
+    clock.addAndGet(12_000);
+    player.playVideo("funny_dogs_video_id");
+    clock.addAndGet(5_000);
+    player.playPreviousVideo();
+    player.showHistory();
+
+    var lines = getOutputLines();
+    assertThat(lines[5], containsString("Stopping video: Funny Dogs"));
+    assertThat(lines[6], containsString("Playing video: Amazing Cats (resuming at 0:42)"));
+    assertThat(lines[7], containsString("Playback history:"));
+    assertThat(lines[8], containsString("1) Funny Dogs (funny_dogs_video_id) - watched 0:05"));
+    assertThat(lines[9], containsString("2) Amazing Cats (amazing_cats_video_id) - watched 0:42"));
+    assertEquals(10, lines.length);
+  }
+
+  @Test
+  public void testNothingToGoBackTo() {
+    videoPlayer.playPreviousVideo();
+    videoPlayer.showHistory();
+
+    var lines = getOutputLines();
+    assertThat(lines[0], containsString("Cannot play previous video: No video was played before"));
+    assertThat(lines[1], containsString("No playback history"));
+  }
+}
@@ -0,0 +1,98 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+public class PlaybackSessionsTest extends TestBase {
+
+  @Test
+  public void testSessionsPlayTheSameVideoIndependently() {
+    var library = new VideoLibrary();
+    var sessions = new PlaybackSessions();
+    var alice = new VideoPlayer(library, sessions, "alice");
+    var bob = new VideoPlayer(library, sessions, "bob");
+
+    alice.playVideo("amazing_cats_video_id");
+    bob.playVideo("amazing_cats_video_id");
+    alice.pauseVideo();
+    alice.showPlaying();
+    bob.showPlaying();
+    bob.stopVideo();
+    alice.showPlaying();
+
+    var lines = getOutputLines();
+    assertEquals(7, lines.length);
+    assertThat(lines[3], containsString("Currently playing: Amazing Cats (amazing_cats_video_id) "
+        + "[#cat #animal] - PAUSED"));
+    assertThat(lines[4], containsString("Currently playing: Amazing Cats (amazing_cats_video_id) "
+        + "[#cat #animal]"));
+    assertFalse(lines[4].contains("PAUSED"));
+    assertThat(lines[5], containsString("Stopping video: Amazing Cats"));
+    assertThat(lines[6], containsString("PAUSED"));
+  }
+
+  @Test
+  public void testFlaggingStopsEverySessionPlayingTheVideo() {
+    var library = new VideoLibrary();
+    var sessions = new PlaybackSessions();
+    var alice = new VideoPlayer(library, sessions, "alice");
+    var bob = new VideoPlayer(library, sessions, "bob");
+
+    alice.playVideo("amazing_cats_video_id");
+    bob.playVideo("amazing_cats_video_id");
+    alice.flagVideo("amazing_cats_video_id");
+    bob.showPlaying();
+
+    var lines = getOutputLines();
+    assertThat(lines[2], containsString("Stopping video: Amazing Cats"));
+    assertThat(lines[3], containsString("Successfully flagged video: Amazing Cats"));
+    assertThat(lines[4], containsString("No video is currently playing"));
+  }
+
+  @Test
+  public void testConcurrentCommandsKeepEachSessionConsistent() throws Exception {
+    var sessions = new PlaybackSessions();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < 4; thread++) {
+        int first = thread * 1_000;
+        futures.add(executor.submit(() -> {
+          for (int i = first; i < first + 1_000; i++) {
+            PlaybackSessions.Session session = sessions.session("session_" + i);
+            session.play(i);
+            session.pause();
+            session.resume();
+            session.pause();
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(4_000, sessions.size());
+    for (int i = 0; i < 4_000; i++) {
+      long state = sessions.session("session_" + i).state();
+      assertTrue(PlaybackSessions.isPaused(state));
+      assertEquals(i, PlaybackSessions.ordinal(state));
+    }
+
+    sessions.stopIf(ordinal -> ordinal % 2 == 0);
+    assertFalse(PlaybackSessions.isPlaying(sessions.session("session_10").state()));
+    assertTrue(PlaybackSessions.isPlaying(sessions.session("session_11").state()));
+  }
+}
@@ -0,0 +1,74 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RankedIndexTest extends TestBase {
+
+  @Test
+  public void testRanksByRelevanceThenTitle(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Cat Cat Cat | many_cats_id | #cat\n"
+        + "A Cat | a_cat_id |\n"
+        + "Dogs and a cat at the park on a long sunny afternoon | long_id |\n"
+        + "Dogs | dogs_id | #cat\n"
+        + "B Cat | b_cat_id |\n"
+        + "Birds | birds_id |\n");
+    var library = new VideoLibrary(catalog);
+
+    assertEquals(List.of("many_cats_id", "a_cat_id", "b_cat_id", "dogs_id", "long_id"),
+        ids(library.searchVideosRanked("cats cat", 10)));
+    assertEquals(List.of("many_cats_id", "a_cat_id"), ids(library.searchVideosRanked("cat", 2)));
+    assertEquals(List.of("dogs_id", "long_id"), ids(library.searchVideosRanked("dogs", 10)));
+
+    library.getVideo("many_cats_id").flag("too_many_cats");
+    assertEquals(List.of("a_cat_id", "b_cat_id"), ids(library.searchVideosRanked("CAT", 2)));
+    assertEquals(List.of(), ids(library.searchVideosRanked("fish", 10)));
+  }
+
+  @Test
+  public void testRankedCommandKeepsThePlayPrompt() {
+    setInput("1");
+
+    new CommandParser(videoPlayer).executeCommand(List.of("SEARCH_VIDEOS_RANKED", "google", "LIMIT", "3"));
+
+    var lines = getOutputLines();
+    assertThat(lines[0], containsString("Here are the results for google:"));
+    assertThat(lines[1], containsString("1) Life at Google (life_at_google_video_id)"));
+    assertThat(lines[4], containsString("Playing video: Life at Google"));
+  }
+
+  @Test
+  public void testCountIsClampedAndAskedForByKeyword(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Highlights 2024 | highlights_2024_id |\n"
+        + "Highlights 2023 | highlights_2023_id |\n");
+    var library = new VideoLibrary(catalog);
+
+    // A count far beyond the catalog only allocates for the matches
+    assertEquals(2, library.searchVideosRanked("highlights", Integer.MAX_VALUE).size());
+
+    // A number ending the term is searched for, not taken as the count
+    setInput("No");
+    new CommandParser(new VideoPlayer(library))
+        .executeCommand(List.of("SEARCH_VIDEOS_RANKED", "highlights", "2024", "LIMIT", "1"));
+    var lines = getOutputLines();
+    assertThat(lines[0], containsString("Here are the results for highlights 2024:"));
+    assertThat(lines[1], containsString("1) Highlights 2024 (highlights_2024_id)"));
+    assertThat(lines[2], not(containsString("Highlights 2023")));
+  }
+
+  private static List<String> ids(List<Video> videos) {
+    return videos.stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+}
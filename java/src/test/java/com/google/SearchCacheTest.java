@@ -0,0 +1,92 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SearchCacheTest {
+
+  @Test
+  public void testFlagChangesInvalidateOnlyAffectedResults() {
+    var library = new VideoLibrary();
+    SearchCache cache = library.getSearchCache();
+
+    assertEquals(2, library.searchVideos("cat").size());
+    assertEquals(1, library.searchVideos("dog").size());
+    assertEquals(3, library.searchVideosWithTag("#animal").size());
+    assertEquals(2, library.searchVideos("CAT").size());
+    assertEquals(1, cache.getHits());
+    assertEquals(3, cache.getMisses());
+    assertEquals(3, cache.size());
+
+    // Flagging a cat video drops the results it is in, and leaves the dog one
+    library.getVideo("amazing_cats_video_id").flag("dont_like_cats");
+    assertEquals(1, cache.size());
+    assertEquals(2, cache.getInvalidations());
+    assertEquals(1, library.searchVideos("cat").size());
+    assertEquals(1, library.searchVideos("dog").size());
+    assertEquals(2, cache.getHits());
+
+    // Allowing it again drops the results it rejoins
+    library.getVideo("amazing_cats_video_id").unflag();
+    assertEquals(3, cache.getInvalidations());
+    assertEquals(2, library.searchVideos("cat").size());
+  }
+
+  @Test
+  public void testFlagChangeLeavesUnrelatedResults() {
+    var library = new VideoLibrary();
+    SearchCache cache = library.getSearchCache();
+    for (int i = 0; i < 500; i++) {
+      library.searchVideos("no such title " + i);
+    }
+    library.searchVideos("amazing");
+    library.searchVideosWithTag("#CAT");
+
+    library.getVideo("amazing_cats_video_id").flag("dont_like_cats");
+    assertEquals(2, cache.getInvalidations());
+    assertEquals(500, cache.size());
+  }
+
+  @Test
+  public void testReloadClearsResults(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Cats | cats_id | #cat\n");
+    var library = new VideoLibrary(catalog);
+    assertEquals(1, library.searchVideos("cat").size());
+
+    Files.writeString(catalog, "Cats | cats_id | #cat\nMore Cats | more_cats_id | #cat\n");
+    library.reload();
+
+    assertEquals(0, library.getSearchCache().size());
+    assertEquals(2, library.searchVideos("cat").size());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedBeyondCapacity() {
+    var cache = new SearchCache(100);
+    var flags = new VideoFlags();
+    VideoCatalog catalog = VideoCatalog.builder(HeapVideoStore.builder(flags)).build();
+
+    cache.put(SearchCache.Key.title("a"), catalog, flags, flags.version(), new int[20]);
+    cache.put(SearchCache.Key.title("b"), catalog, flags, flags.version(), new int[20]);
+    cache.get(SearchCache.Key.title("a"), catalog);
+    cache.put(SearchCache.Key.title("c"), catalog, flags, flags.version(), new int[20]);
+
+    assertEquals(1, cache.getEvictions());
+    assertNull(cache.get(SearchCache.Key.title("b"), catalog));
+    assertArrayEquals(new int[20], cache.get(SearchCache.Key.title("A"), catalog));
+
+    // Results computed before a flag change are not cached
+    long version = flags.version();
+    flags.flag(0, "reason");
+    cache.put(SearchCache.Key.title("d"), catalog, flags, version, new int[1]);
+    assertNull(cache.get(SearchCache.Key.title("d"), catalog));
+  }
+}
@@ -0,0 +1,51 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Locale;
+import org.junit.jupiter.api.Test;
+
+public class SearchKeyTest {
+
+  @Test
+  public void testFoldsIndependentlyOfLocale() {
+    Locale saved = Locale.getDefault();
+    try {
+      Locale.setDefault(new Locale("tr", "TR"));
+      assertEquals("title", SearchKey.fold("TITLE"));
+      assertEquals("strasse", SearchKey.fold("Stra\u00dfe"));
+      assertEquals("\u03c3\u03bf\u03c3", SearchKey.fold("\u03a3\u03bf\u03c2"));
+      assertEquals("caf\u00e9", SearchKey.fold("CAFE\u0301"));
+    } finally {
+      Locale.setDefault(saved);
+    }
+  }
+
+  @Test
+  public void testContainsComparesBytes() {
+    assertTrue(SearchKey.contains(SearchKey.of("Amazing Cats"), SearchKey.of("CATS")));
+    assertTrue(SearchKey.contains(SearchKey.of("Amazing Cats"), SearchKey.of("")));
+    assertTrue(SearchKey.contains(SearchKey.of("Le Caf\u00e9"), SearchKey.of("CAF\u00c9")));
+    assertFalse(SearchKey.contains(SearchKey.of("Cat"), SearchKey.of("Cats")));
+    assertFalse(SearchKey.contains(SearchKey.of("Le Cafe"), SearchKey.of("caf\u00e9")));
+  }
+
+  @Test
+  public void testStoresSearchFoldedTitles() {
+    for (boolean offHeap : new boolean[] {false, true}) {
+      VideoFlags flags = new VideoFlags();
+      VideoCatalog.Builder builder = VideoCatalog.builder(
+          offHeap ? OffHeapVideoStore.builder(flags) : HeapVideoStore.builder(flags));
+      builder.accept("Die Stra\u00dfe", "street_id", new int[0]);
+      builder.accept("Ab", "ab_id", new int[0]);
+      VideoCatalog catalog = builder.build();
+
+      int[] found = catalog.getTitleIndex().search(SearchKey.fold("STRASSE"));
+      assertEquals(1, found.length);
+      assertEquals("street_id", catalog.getVideo(found[0]).getVideoId());
+      assertEquals(1, catalog.getTitleIndex().search(SearchKey.fold("AB")).length);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class ShardedScanTest {
+
+  @Test
+  public void testMatchesSequentialScanInTitleOrder() {
+    var random = new Random(11);
+    VideoCatalog.Builder builder = VideoCatalog.builder(HeapVideoStore.builder(new VideoFlags()));
+    for (int i = 0; i < 5_000; i++) {
+      builder.accept("Video " + random.nextInt(1_000), "id_" + i, new int[0]);
+    }
+    builder.remove("id_42");
+    VideoCatalog catalog = builder.build();
+    VideoStore store = catalog.getStore();
+
+    var pool = new ForkJoinPool(4);
+    try {
+      for (int shardSize : new int[] {1, 7, 1_000, 10_000}) {
+        int[] ranks = ShardedScan.scan(
+            catalog, ordinal -> store.getTitle(ordinal).endsWith("7"), pool, shardSize);
+
+        int[] order = catalog.getTitleOrder();
+        int[] expected = IntStream.range(0, order.length)
+            .filter(rank -> store.getTitle(order[rank]).endsWith("7"))
+            .toArray();
+        assertArrayEquals(expected, ranks, "shard size " + shardSize);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testMergeInterleavesLists() {
+    int[][] lists = {{1, 4, 9}, {}, {0, 2, 3, 10}, {5}};
+    assertArrayEquals(new int[] {0, 1, 2, 3, 4, 5, 9, 10}, ShardedScan.merge(lists));
+    assertArrayEquals(new int[0], ShardedScan.merge(new int[0][]));
+  }
+
+  @Test
+  public void testRegexSearchLeavesOutFlaggedVideos() {
+    var library = new VideoLibrary();
+    Pattern pattern = Pattern.compile("c.t", Pattern.CASE_INSENSITIVE);
+
+    List<Video> videos = library.searchVideosMatching(pattern);
+    assertEquals(Arrays.asList("amazing_cats_video_id", "another_cat_video_id"),
+        videos.stream().map(Video::getVideoId).collect(Collectors.toList()));
+
+    library.getVideo("amazing_cats_video_id").flag("dont_like_cats");
+    assertEquals(1, library.searchVideosMatching(pattern).size());
+  }
+}
@@ -0,0 +1,92 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class ShuffleTest extends TestBase {
+
+  private final VideoLibrary library = new VideoLibrary();
+
+  @Test
+  public void testOrdersArePermutations() {
+    for (int size : new int[] {0, 1, 2, 3, 5, 16, 17, 100, 1_000, 65_537}) {
+      for (long seed = 0; seed < 3; seed++) {
+        var shuffle = new Shuffle(size, seed);
+        BitSet seen = new BitSet(size);
+        for (int index = 0; index < size; index++) {
+          int ordinal = shuffle.get(index);
+          assertFalse(seen.get(ordinal), "size " + size + " repeats " + ordinal);
+          seen.set(ordinal);
+        }
+        assertEquals(size, seen.cardinality());
+
+        // Walking the order skips what is not eligible, then runs out
+        int odd = 0;
+        while (shuffle.next(ordinal -> ordinal % 2 == 1) >= 0) {
+          odd++;
+        }
+        assertEquals(size / 2, odd);
+        assertEquals(-1, shuffle.next(ordinal -> true));
+      }
+    }
+  }
+
+  @Test
+  public void testSeedsGiveDifferentOrders() {
+    List<Integer> first = new ArrayList<>();
+    List<Integer> second = new ArrayList<>();
+    var a = new Shuffle(1_000, 1);
+    var b = new Shuffle(1_000, 2);
+    for (int index = 0; index < 1_000; index++) {
+      first.add(a.get(index));
+      second.add(b.get(index));
+    }
+    assertNotEquals(first, second);
+  }
+
+  @Test
+  public void testShufflePlaysEveryVideoOnceAndSkipsFlagged() {
+    videoPlayer.shuffle(true);
+    Set<String> played = new HashSet<>();
+    for (int i = 0; i < 3; i++) {
+      videoPlayer.playRandomVideo();
+    }
+    for (String line : getOutputLines()) {
+      if (line.startsWith("Playing video: ")) {
+        played.add(line.substring("Playing video: ".length()));
+      }
+    }
+    assertEquals(3, played.size());
+
+    // Flag the videos not played yet but one, which must come next
+    List<String> remaining = new ArrayList<>(List.of("Amazing Cats", "Another Cat Video",
+        "Funny Dogs", "Life at Google", "Video about nothing"));
+    remaining.removeAll(played);
+    videoPlayer.flagVideo(idOf(remaining.get(0)));
+    outputStream.reset();
+
+    videoPlayer.playRandomVideo();
+    assertThat(getOutputLines()[1], containsString("Playing video: " + remaining.get(1)));
+
+    // The next round starts over in a new order
+    outputStream.reset();
+    videoPlayer.playRandomVideo();
+    assertThat(getOutputLines()[1], containsString("Playing video: "));
+  }
+
+  private String idOf(String title) {
+    return library.getVideosByTitle().stream()
+        .filter(video -> video.getTitle().equals(title))
+        .findFirst().get().getVideoId();
+  }
+}
@@ -0,0 +1,191 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StateLogTest extends TestBase {
+
+  @Test
+  public void testPlaylistsAndFlagsSurviveRestart(@TempDir Path dir) throws IOException {
+    var log = new StateLog(dir.resolve("wal"), dir.resolve("state"));
+    var player = new VideoPlayer(new VideoLibrary(), log);
+    player.createPlaylist("My_Playlist");
+    player.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    player.addVideoToPlaylist("my_playlist", "funny_dogs_video_id");
+    player.addVideoToPlaylist("my_playlist", "life_at_google_video_id");
+    player.removeFromPlaylist("my_playlist", "funny_dogs_video_id");
+    player.createPlaylist("gone");
+    player.deletePlaylist("gone");
+    player.flagVideo("another_cat_video_id", "dont_like_cats");
+    player.flagVideo("nothing_video_id");
+    player.allowVideo("nothing_video_id");
+    log.close();
+    outputStream.reset();
+
+    var restarted = new VideoPlayer(new VideoLibrary(), new StateLog(dir.resolve("wal"), dir.resolve("state")));
+    restarted.showAllPlaylists();
+    restarted.showPlaylist("my_playlist");
+    restarted.allowVideo("nothing_video_id");
+    restarted.flagVideo("another_cat_video_id");
+
+    var lines = getOutputLines();
+    assertEquals(7, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Showing all playlists:"));
+    assertThat(lines[1], containsString("My_Playlist"));
+    assertThat(lines[3], containsString("Amazing Cats (amazing_cats_video_id) [#cat #animal]"));
+    assertThat(lines[4], containsString("Life at Google (life_at_google_video_id) [#google #career]"));
+    assertThat(lines[5], containsString("Cannot remove flag from video: Video is not flagged"));
+    assertThat(lines[6], containsString("Cannot flag video: Video is already flagged"));
+  }
+
+  @Test
+  public void testCheckpointsBoundTheLog(@TempDir Path dir) throws IOException {
+    var log = new StateLog(dir.resolve("wal"), dir.resolve("state"), 5);
+    var player = new VideoPlayer(new VideoLibrary(), log);
+    player.createPlaylist("list");
+    for (int i = 0; i < 20; i++) {
+      player.addVideoToPlaylist("list", "amazing_cats_video_id");
+      player.removeFromPlaylist("list", "amazing_cats_video_id");
+    }
+    player.addVideoToPlaylist("list", "funny_dogs_video_id");
+    log.close();
+
+    assertTrue(Files.exists(dir.resolve("state")));
+    // Everything before the last checkpoint is in the snapshot, so at most 4 records remain
+    assertTrue(Files.size(dir.resolve("wal")) < 16 + 4 * 64, "log size " + Files.size(dir.resolve("wal")));
+
+    var restarted = new VideoPlayer(new VideoLibrary(), new StateLog(dir.resolve("wal"), dir.resolve("state")));
+    outputStream.reset();
+    restarted.showPlaylist("list");
+    var lines = getOutputLines();
+    assertEquals(2, lines.length, outputStream.toString());
+    assertThat(lines[1], containsString("Funny Dogs (funny_dogs_video_id)"));
+  }
+
+  @Test
+  public void testTornTailIsDropped(@TempDir Path dir) throws IOException {
+    Path wal = dir.resolve("wal");
+    var log = new StateLog(wal, dir.resolve("state"));
+    log.recover((operation, arguments) -> { }, out -> { });
+    log.append(StateLog.CREATE_PLAYLIST, "first");
+    log.append(StateLog.ADD_VIDEO, "first", "video");
+    long intact = Files.size(wal);
+    log.append(StateLog.CREATE_PLAYLIST, "second");
+    log.close();
+
+    // A crash in the middle of the last record
+    byte[] bytes = Files.readAllBytes(wal);
+    Files.write(wal, Arrays.copyOf(bytes, bytes.length - 3));
+
+    var replayed = recover(wal, dir.resolve("state"));
+    assertEquals(List.of("1 first", "2 first video"), replayed);
+    assertEquals(intact, Files.size(wal));
+  }
+
+  @Test
+  public void testLogFoldedIntoSnapshotIsSkipped(@TempDir Path dir) throws IOException {
+    Path wal = dir.resolve("wal");
+    var log = new StateLog(wal, dir.resolve("state"));
+    log.recover((operation, arguments) -> { }, out -> out.accept(StateLog.CREATE_PLAYLIST, "compacted"));
+    log.append(StateLog.CREATE_PLAYLIST, "first");
+    log.append(StateLog.DELETE_PLAYLIST, "first");
+    byte[] beforeCheckpoint = Files.readAllBytes(wal);
+    log.checkpoint();
+    log.close();
+
+    // A crash after the snapshot was moved into place, but before the log was emptied
+    Files.write(wal, beforeCheckpoint);
+
+    assertEquals(List.of("1 compacted"), recover(wal, dir.resolve("state")));
+  }
+
+  @Test
+  public void testCorruptSnapshotIsMovedAside(@TempDir Path dir) throws IOException {
+    Path wal = dir.resolve("wal");
+    Path state = dir.resolve("state");
+    var log = new StateLog(wal, state);
+    log.recover((operation, arguments) -> { }, out -> {
+      out.accept(StateLog.CREATE_PLAYLIST, "kept");
+      out.accept(StateLog.CREATE_PLAYLIST, "damaged");
+    });
+    log.checkpoint();
+    log.close();
+
+    // Damage the last record, after the first one was read
+    byte[] bytes = Files.readAllBytes(state);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(state, bytes);
+
+    // Nothing is replayed rather than part of the state, and the log starts out empty
+    assertEquals(List.of(), recover(wal, state));
+    assertTrue(Files.exists(dir.resolve("state.corrupt")));
+    assertTrue(Files.exists(dir.resolve("wal.corrupt")));
+    assertThat(outputStream.toString(), containsString("State snapshot " + state + " is corrupt"));
+
+    var reopened = new StateLog(wal, state);
+    reopened.recover((operation, arguments) -> { }, out -> { });
+    reopened.append(StateLog.CREATE_PLAYLIST, "fresh");
+    reopened.close();
+    assertEquals(List.of("1 fresh"), recover(wal, state));
+  }
+
+  @Test
+  public void testLogThatCannotBeOpenedFailsStartup(@TempDir Path dir) throws IOException {
+    Path wal = Files.createDirectory(dir.resolve("wal"));
+    var log = new StateLog(wal, dir.resolve("state"));
+    assertThrows(UncheckedIOException.class, () -> new VideoPlayer(new VideoLibrary(), log));
+  }
+
+  @Test
+  public void testChangesThatCannotBeLoggedAreNotApplied(@TempDir Path dir) throws IOException {
+    var log = new StateLog(dir.resolve("wal"), dir.resolve("state"));
+    var player = new VideoPlayer(new VideoLibrary(), log);
+    player.createPlaylist("saved");
+
+    // An interrupted write closes the log's channel, failing this append and every later one
+    Thread.currentThread().interrupt();
+    try {
+      player.createPlaylist("lost");
+    } finally {
+      Thread.interrupted();
+    }
+    player.addVideoToPlaylist("saved", "amazing_cats_video_id");
+    player.flagVideo("funny_dogs_video_id", "dont_like_dogs");
+    player.showAllPlaylists();
+    player.showPlaylist("saved");
+    player.playVideo("funny_dogs_video_id");
+    log.close();
+
+    var lines = getOutputLines();
+    assertEquals(9, lines.length, outputStream.toString());
+    assertThat(lines[1], containsString("Cannot create playlist: Change could not be saved"));
+    assertThat(lines[2], containsString("Cannot add video to saved: Change could not be saved"));
+    assertThat(lines[3], containsString("Cannot flag video: Change could not be saved"));
+    assertEquals("saved", lines[5].trim());
+    assertThat(lines[7], containsString("No videos here yet"));
+    assertThat(lines[8], containsString("Playing video: Funny Dogs"));
+    assertEquals(List.of("1 saved"), recover(dir.resolve("wal"), dir.resolve("state")));
+  }
+
+  private static List<String> recover(Path wal, Path snapshot) throws IOException {
+    List<String> replayed = new ArrayList<>();
+    var log = new StateLog(wal, snapshot);
+    log.recover((operation, arguments) -> replayed.add(operation + " " + String.join(" ", arguments)),
+        out -> { });
+    log.close();
+    return replayed;
+  }
+}
@@ -0,0 +1,77 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TagQueryTest extends TestBase {
+
+  @Test
+  public void testBooleanExpressions(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Cat Fails | fails_id | #cat , #animal , #funny\n"
+        + "Amazing Cats | cats_id | #cat , #animal\n"
+        + "Dogs | dogs_id | #dog , #animal\n"
+        + "Lolcat | lolcat_id | #cat , #funny\n");
+    var library = new VideoLibrary(catalog);
+
+    assertEquals(List.of("cats_id"), search(library, "#cat AND #animal NOT #funny"));
+    assertEquals(List.of("cats_id"), search(library, "#CAT and #animal and not #funny"));
+    assertEquals(List.of("fails_id", "dogs_id", "lolcat_id"),
+        search(library, "#dog OR #funny"));
+    assertEquals(List.of("fails_id", "dogs_id"),
+        search(library, "#animal AND (#dog OR #funny)"));
+    assertEquals(List.of("dogs_id", "lolcat_id"), search(library, "NOT #cat OR #funny NOT #animal"));
+    assertEquals(List.of(), search(library, "#cat AND #missing"));
+
+    library.getVideo("dogs_id").flag("dont_like_dogs");
+    assertEquals(List.of("fails_id"), search(library, "#animal AND (#dog OR #funny)"));
+  }
+
+  @Test
+  public void testMalformedExpressions() {
+    assertThrows(IllegalArgumentException.class, () -> TagQuery.parse("#cat AND"));
+    assertThrows(IllegalArgumentException.class, () -> TagQuery.parse("(#cat OR #dog"));
+    assertThrows(IllegalArgumentException.class, () -> TagQuery.parse("#cat #dog"));
+    assertThrows(IllegalArgumentException.class, () -> TagQuery.parse("cat"));
+  }
+
+  @Test
+  public void testSearchVideosWithTagsPlayAnswer() {
+    setInput("2");
+
+    videoPlayer.searchVideosWithTags("#animal NOT #dog");
+
+    var lines = getOutputLines();
+    assertEquals(6, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Here are the results for #animal NOT #dog:"));
+    assertThat(lines[1], containsString("1) Amazing Cats (amazing_cats_video_id) [#cat #animal]"));
+    assertThat(lines[2],
+        containsString("2) Another Cat Video (another_cat_video_id) [#cat #animal]"));
+    assertThat(lines[5], containsString("Playing video: Another Cat Video"));
+  }
+
+  @Test
+  public void testSearchVideosWithTagsInvalidExpression() {
+    videoPlayer.searchVideosWithTags("#cat AND AND #dog");
+
+    assertThat(outputStream.toString(),
+        containsString("Cannot search videos: Invalid tag expression"));
+  }
+
+  private static List<String> search(VideoLibrary library, String expression) {
+    List<String> ids = new ArrayList<>();
+    library.searchVideosWithTags(TagQuery.parse(expression))
+        .forEach(video -> ids.add(video.getVideoId()));
+    return ids;
+  }
+}
@@ -0,0 +1,78 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class TitleIndexTest {
+
+  @Test
+  public void testMatchesScanInTitleOrder() {
+    var random = new Random(7);
+    String[] words = {"Cat", "cats", "Dog", "amazing", "Funny", "video", "the", "a", "CAT"};
+    VideoCatalog.Builder builder = VideoCatalog.builder(HeapVideoStore.builder(new VideoFlags()));
+    for (int i = 0; i < 2_000; i++) {
+      String title = words[random.nextInt(words.length)] + " "
+          + words[random.nextInt(words.length)] + " " + random.nextInt(50);
+      builder.accept(title, "id_" + i, new int[0]);
+    }
+    builder.remove("id_10");
+    VideoCatalog catalog = builder.build();
+
+    for (String term : new String[] {"cat", "CATS", "g v", "at", "a", "", "amazing funny", "zzz"}) {
+      assertArrayEquals(scan(catalog, term), catalog.getTitleIndex().search(SearchKey.fold(term)),
+          term);
+    }
+  }
+
+  @Test
+  public void testOffHeapIndexMatchesScan() {
+    var random = new Random(11);
+    String[] words = {"Cat", "cats", "Dog", "\u00C9t\u00E9", "Funny", "video", "\uD83D\uDE00"};
+    VideoCatalog.Builder builder =
+        VideoCatalog.builder(OffHeapVideoStore.builder(new VideoFlags()));
+    for (int i = 0; i < 2_000; i++) {
+      builder.accept(words[random.nextInt(words.length)] + " "
+          + words[random.nextInt(words.length)], "id_" + i, new int[0]);
+    }
+    builder.remove("id_3");
+    VideoCatalog catalog = builder.build();
+
+    for (String term : new String[] {"cat", "\u00E9t\u00E9 ", "ts do", "y v", "o", "zzz"}) {
+      assertArrayEquals(scan(catalog, term), catalog.getTitleIndex().search(SearchKey.fold(term)),
+          term);
+    }
+  }
+
+  @Test
+  public void testSearchLeavesOutFlaggedVideos() {
+    var library = new VideoLibrary();
+    assertEquals(2, library.searchVideos("cat").size());
+
+    library.getVideo("amazing_cats_video_id").flag("dont_like_cats");
+    List<Video> videos = library.searchVideos("CAT");
+    assertEquals(1, videos.size());
+    assertEquals("another_cat_video_id", videos.get(0).getVideoId());
+
+    library.getVideo("amazing_cats_video_id").unflag();
+    assertEquals(2, library.searchVideos("cat").size());
+  }
+
+  private static int[] scan(VideoCatalog catalog, String term) {
+    List<Video> videos = new ArrayList<>();
+    for (int ordinal = 0; ordinal < catalog.ordinalCount(); ordinal++) {
+      Video video = catalog.getVideo(ordinal);
+      if (video != null
+          && video.getTitle().toLowerCase(Locale.ROOT).contains(term.toLowerCase(Locale.ROOT))) {
+        videos.add(video);
+      }
+    }
+    videos.sort(null);
+    return videos.stream().mapToInt(Video::getOrdinal).toArray();
+  }
+}
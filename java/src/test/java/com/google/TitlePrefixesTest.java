@@ -0,0 +1,84 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class TitlePrefixesTest extends TestBase {
+
+  @Test
+  public void testCompletesLikeAScanOfSortedTitles() {
+    var flags = new VideoFlags();
+    completesLikeAScan(flags, HeapVideoStore.builder(flags));
+  }
+
+  @Test
+  public void testCompletesOffHeapTitlesInPlace() {
+    var flags = new VideoFlags();
+    completesLikeAScan(flags, OffHeapVideoStore.builder(flags));
+  }
+
+  private static void completesLikeAScan(VideoFlags flags, VideoStore.Builder store) {
+    var random = new Random(5);
+    String[] words = {"Cat", "cats", "Catalog", "amazing", "Amazingly long title words", "a", "",
+        "\uFF21", "\uD83D\uDE00"};
+    VideoCatalog.Builder builder = VideoCatalog.builder(store);
+    for (int i = 0; i < 3_000; i++) {
+      String title = (words[random.nextInt(words.length)] + " "
+          + words[random.nextInt(words.length)]).strip();
+      builder.accept(title.isEmpty() ? "x" : title, "id_" + i, new int[0]);
+    }
+    VideoCatalog catalog = builder.build();
+    for (int ordinal = 0; ordinal < 3_000; ordinal += 7) {
+      flags.flag(ordinal, "reason");
+    }
+
+    String[] prefixes = {"", "c", "CAT", "cats c", "amazingly long title w", "amazingly long tx", "z",
+        "\uFF41", "\uD83D\uDE00"};
+    for (String prefix : prefixes) {
+      for (int limit : new int[] {1, 10, 10_000}) {
+        assertArrayEquals(scan(catalog, flags, prefix, limit),
+            catalog.getTitlePrefixes().complete(SearchKey.fold(prefix), limit, flags),
+            prefix + " " + limit);
+      }
+    }
+  }
+
+  @Test
+  public void testSuggestCommand() {
+    var parser = new CommandParser(videoPlayer);
+
+    parser.executeCommand(List.of("SUGGEST", "a", "LIMIT", "1"));
+    parser.executeCommand(List.of("SUGGEST", "AMAZING", "CATS"));
+    parser.executeCommand(List.of("SUGGEST", "zebra"));
+
+    var lines = getOutputLines();
+    assertEquals(5, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Here are the suggestions for a:"));
+    assertThat(lines[1], containsString("Amazing Cats (amazing_cats_video_id)"));
+    assertThat(lines[2], containsString("Here are the suggestions for AMAZING CATS:"));
+    assertThat(lines[3], containsString("Amazing Cats (amazing_cats_video_id)"));
+    assertThat(lines[4], containsString("No suggestions for zebra"));
+  }
+
+  private static int[] scan(VideoCatalog catalog, VideoFlags flags, String prefix, int limit) {
+    String folded = prefix.toLowerCase(Locale.ROOT);
+    return Arrays.stream(catalog.getTitleOrder())
+        .boxed()
+        .filter(ordinal -> catalog.getVideo(ordinal).getTitle().toLowerCase(Locale.ROOT)
+            .startsWith(folded))
+        .sorted((a, b) -> catalog.getVideo(a).getTitle().toLowerCase(Locale.ROOT)
+            .compareTo(catalog.getVideo(b).getTitle().toLowerCase(Locale.ROOT)))
+        .filter(ordinal -> !flags.isFlagged(ordinal))
+        .limit(limit)
+        .mapToInt(Integer::intValue)
+        .toArray();
+  }
+}
@@ -0,0 +1,77 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TitleWordsTest {
+
+  @Test
+  public void testNearMatchesBruteForce() {
+    var random = new Random(9);
+    VideoCatalog.Builder builder = VideoCatalog.builder(HeapVideoStore.builder(new VideoFlags()));
+    for (int i = 0; i < 500; i++) {
+      builder.accept(randomWord(random) + " " + randomWord(random), "id_" + i, new int[0]);
+    }
+    VideoCatalog catalog = builder.build();
+    TitleWords words = catalog.getTitleWords();
+
+    for (int round = 0; round < 50; round++) {
+      String query = randomWord(random);
+      IntBitmap[] near = words.near(query, 2);
+
+      for (int distance = 0; distance <= 2; distance++) {
+        IntBitmap.Builder expected = new IntBitmap.Builder();
+        int[] order = catalog.getTitleOrder();
+        for (int rank = 0; rank < order.length; rank++) {
+          int closest = Integer.MAX_VALUE;
+          for (String word : TitleWords.split(catalog.getVideo(order[rank]).getTitle())) {
+            closest = Math.min(closest, TitleWords.distance(query, word));
+          }
+          if (closest == distance) {
+            expected.add(rank);
+          }
+        }
+        assertArrayEquals(expected.build().toArray(), near[distance].toArray(), query);
+      }
+    }
+  }
+
+  @Test
+  public void testFuzzySearchRanksByDistanceThenTitle(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Amazing Cats | cats_id |\nAmazing Hats | hats_id |\n"
+        + "Amazng Cat | cat_id |\nBoring Dogs | dogs_id |\n");
+    var library = new VideoLibrary(catalog);
+
+    // "Amazing Hats" is one edit away, "Amazng Cat" two
+    assertEquals(List.of("cats_id", "hats_id", "cat_id"),
+        ids(library.searchVideosFuzzy("amazing cats", -1)));
+    assertEquals(List.of("cats_id"), ids(library.searchVideosFuzzy("amazing cats", 0)));
+    assertEquals(List.of("cat_id", "cats_id"), ids(library.searchVideosFuzzy("amazng cat", 1)));
+
+    library.getVideo("cats_id").flag("dont_like_cats");
+    assertEquals(List.of("hats_id", "cat_id"),
+        ids(library.searchVideosFuzzy("AMAZIN CATS", -1)));
+  }
+
+  private static String randomWord(Random random) {
+    char[] word = new char[2 + random.nextInt(5)];
+    for (int i = 0; i < word.length; i++) {
+      word[i] = (char) ('a' + random.nextInt(4));
+    }
+    return new String(word);
+  }
+
+  private static List<String> ids(List<Video> videos) {
+    return videos.stream().map(Video::getVideoId).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,56 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class VideoIdIndexTest {
+
+  @Test
+  public void testLookupByStringAndBytes() {
+    var index = new VideoIdIndex();
+    index.put("amazing_cats_video_id", 0);
+    index.put("caf\u00e9_\ud83d\ude00_id", 1);
+
+    assertEquals(0, index.get("amazing_cats_video_id"));
+    assertEquals(1, index.get("caf\u00e9_\ud83d\ude00_id"));
+    assertEquals(-1, index.get("amazing_cats"));
+
+    byte[] line = "PLAY caf\u00e9_\ud83d\ude00_id".getBytes(StandardCharsets.UTF_8);
+    assertEquals(1, index.get(line, 5, line.length - 5));
+  }
+
+  @Test
+  public void testRemoveKeepsOtherEntriesReachable() {
+    var index = new VideoIdIndex();
+    Map<String, Integer> expected = new HashMap<>();
+    var random = new Random(42);
+    for (int ordinal = 0; ordinal < 20_000; ordinal++) {
+      String id = "video_" + random.nextInt(1_000_000) + "_" + ordinal;
+      index.put(id, ordinal);
+      expected.put(id, ordinal);
+    }
+
+    var copy = index.copy();
+    expected.keySet().removeIf(id -> {
+      if (id.hashCode() % 3 == 0) {
+        assertEquals((int) expected.get(id), copy.remove(id));
+        return true;
+      }
+      return false;
+    });
+    copy.put("added_after_copy", 20_000);
+
+    assertEquals(expected.size() + 1, copy.size());
+    expected.forEach((id, ordinal) -> assertEquals((int) ordinal, copy.get(id)));
+    assertEquals(20_000, copy.get("added_after_copy"));
+
+    // The original index is untouched by changes to its copy
+    assertEquals(20_000, index.size());
+    assertEquals(-1, index.get("added_after_copy"));
+  }
+}
@@ -2,12 +2,24 @@ package com.google;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class VideoLibraryTest {
 
@@ -42,4 +54,232 @@ public class VideoLibraryTest {
     assertEquals("nothing_video_id", video.getVideoId());
     assertTrue(video.getTags().isEmpty());
   }
+
+  @Test
+  public void testLibraryLoadsCatalogFromPath(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog,
+        "  Caf\u00e9 Tour | cafe_video_id |  #food ,, #travel \r\n"
+            + "\r\n"
+            + "Blank Tags | blank_video_id |   \n"
+            + "No Tags | no_tags_video_id", StandardCharsets.UTF_8);
+
+    var library = new VideoLibrary(catalog);
+
+    assertEquals(3, library.getVideos().size());
+    var video = library.getVideo("cafe_video_id");
+    assertEquals("Caf\u00e9 Tour", video.getTitle());
+    assertEquals(List.of("#food", "#travel"), video.getTags());
+    assertTrue(library.getVideo("blank_video_id").getTags().isEmpty());
+    assertTrue(library.getVideo("no_tags_video_id").getTags().isEmpty());
+  }
+
+  @Test
+  public void testParallelLoadKeepsLastDuplicate(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    var lines = new StringBuilder();
+    for (int i = 0; i < 200_000; i++) {
+      lines.append("Video ").append(i).append(" | id_").append(i % 150_000)
+          .append(" | #tag").append(i % 7).append('\n');
+    }
+    Files.writeString(catalog, lines, StandardCharsets.UTF_8);
+
+    var pool = new ForkJoinPool(4);
+    try {
+      var library = new VideoLibrary(catalog, pool);
+
+      assertEquals(150_000, library.getVideos().size());
+      assertEquals("Video 150000", library.getVideo("id_0").getTitle());
+      assertEquals("Video 149999", library.getVideo("id_149999").getTitle());
+      assertEquals(List.of("#tag3"), library.getVideo("id_149999").getTags());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testSnapshotIsUsedUntilCatalogChanges(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Path snapshot = dir.resolve("videos.txt.snapshot");
+    Files.writeString(catalog, "Amazing Cats | cats_id | #cat , #animal\nNothing | nothing_id |\n");
+
+    var first = new VideoLibrary(catalog, null, snapshot);
+    assertTrue(Files.exists(snapshot));
+    assertEquals(2, first.getVideos().size());
+
+    // A fresh snapshot is read instead of the (now unparseable) catalog
+    Files.writeString(catalog, "garbage");
+    Files.setLastModifiedTime(catalog, FileTime.fromMillis(0));
+    var warm = new VideoLibrary(catalog, null, snapshot);
+    assertEquals(List.of("#cat", "#animal"), warm.getVideo("cats_id").getTags());
+    assertTrue(warm.getVideo("nothing_id").getTags().isEmpty());
+
+    // A newer catalog rebuilds the snapshot
+    Files.writeString(catalog, "Funny Dogs | dogs_id | #dog\n");
+    Files.setLastModifiedTime(catalog,
+        FileTime.fromMillis(Files.getLastModifiedTime(snapshot).toMillis() + 1000));
+    var rebuilt = new VideoLibrary(catalog, null, snapshot);
+    assertNull(rebuilt.getVideo("cats_id"));
+    assertEquals("Funny Dogs", rebuilt.getVideo("dogs_id").getTitle());
+  }
+
+  @Test
+  public void testCorruptSnapshotFallsBackToCatalog(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Path snapshot = dir.resolve("videos.txt.snapshot");
+    Files.writeString(catalog, "Amazing Cats | cats_id | #cat\n");
+    new VideoLibrary(catalog, null, snapshot);
+
+    byte[] bytes = Files.readAllBytes(snapshot);
+    bytes[20] ^= 0x1;
+    Files.write(snapshot, bytes);
+    Files.setLastModifiedTime(catalog, FileTime.fromMillis(0));
+
+    var library = new VideoLibrary(catalog, null, snapshot);
+    assertEquals("Amazing Cats", library.getVideo("cats_id").getTitle());
+  }
+
+  @Test
+  public void testReloadAppliesDelta(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Cats | cats_id | #cat\nDogs | dogs_id | #dog\nOld | old_id |\n");
+    var library = new VideoLibrary(catalog);
+    var dogs = library.getVideo("dogs_id");
+    library.getVideo("cats_id").flag("dont_like_cats");
+
+    Files.writeString(catalog, "Cats 2 | cats_id | #cat\nDogs | dogs_id | #dog\nNew | new_id |\n");
+    var delta = library.reload();
+
+    assertEquals(Set.of("new_id"), delta.getAdded().keySet());
+    assertEquals(Set.of("old_id"), delta.getRemoved());
+    assertEquals(Set.of("cats_id"), delta.getChanged().keySet());
+    assertEquals(3, library.getVideos().size());
+    assertNull(library.getVideo("old_id"));
+    assertSame(dogs, library.getVideo("dogs_id"));
+    assertEquals("Cats 2", library.getVideo("cats_id").getTitle());
+    assertTrue(library.getVideo("cats_id").isFlagged());
+  }
+
+  @Test
+  public void testOffHeapLibraryKeepsSemantics(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Cats | cats_id | #cat , #animal\nDogs | dogs_id |\n");
+    var library = new VideoLibrary(catalog, null, null, true);
+
+    assertEquals(2, library.size());
+    assertEquals(2, library.getVideos().size());
+    var cats = library.getVideo("cats_id");
+    assertEquals("Cats", cats.getTitle());
+    assertEquals(List.of("#cat", "#animal"), cats.getTags());
+    assertTrue(library.getVideo("dogs_id").getTags().isEmpty());
+    assertNull(library.getVideo("birds_id"));
+
+    // Flags are shared by every view of a video and survive a reload
+    cats.flag("dont_like_cats");
+    assertEquals(cats, library.getVideo("cats_id"));
+    assertEquals("dont_like_cats", library.getVideo("cats_id").getFlagReason());
+
+    Files.writeString(catalog, "Cats 2 | cats_id | #cat\nBirds | birds_id |\n");
+    var delta = library.reload();
+    assertEquals("1 added, 1 removed, 1 changed", delta.toString());
+    assertEquals("Cats 2", library.getVideo("cats_id").getTitle());
+    assertTrue(library.getVideo("cats_id").isFlagged());
+    assertNull(library.getVideo("dogs_id"));
+    assertEquals("Birds", library.getVideo("birds_id").getTitle());
+  }
+
+  @Test
+  public void testOffHeapTitleOrderMatchesHeap(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "\uFF21 wide | wide_id |\n\uD83D\uDE00 smile | smile_id |\n"
+        + "Zoo | zoo_id |\nzoo | lower_id |\n\u00E9t\u00E9 | ete_id |\nZoo | another_id |\n"
+        + "\uD7FF edge | edge_id |\n", StandardCharsets.UTF_8);
+
+    List<String> heap = new ArrayList<>();
+    new VideoLibrary(catalog).getVideosByTitle().forEach(video -> heap.add(video.getVideoId()));
+    var offHeap = new VideoLibrary(catalog, null, null, true);
+    List<String> columns = new ArrayList<>();
+    offHeap.getVideosByTitle().forEach(video -> columns.add(video.getVideoId()));
+
+    assertEquals(heap, columns);
+    assertEquals(3, offHeap.searchVideos("ZOO").size());
+    assertEquals("smile_id", offHeap.searchVideos("SMILE").get(0).getVideoId());
+  }
+
+  @Test
+  public void testOffHeapReloadsReclaimReplacedValues(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    var library = (VideoLibrary) null;
+    for (int version = 0; version < 5; version++) {
+      var lines = new StringBuilder();
+      for (int i = 0; i < 2_000; i++) {
+        lines.append("Version ").append(version).append(" of a rather long video title number ")
+            .append(i).append(" | id_").append(i).append(" | #tag").append(version).append('\n');
+      }
+      Files.writeString(catalog, lines);
+      if (library == null) {
+        library = new VideoLibrary(catalog, null, null, true);
+      } else {
+        library.reload();
+      }
+
+      // Every title was replaced, so the old values outweigh the live ones and are dropped
+      var store = (OffHeapVideoStore) library.getCatalog().getStore();
+      assertEquals(0, store.deadBytes());
+      assertEquals(List.of("#tag" + version), library.getVideo("id_7").getTags());
+      assertEquals("id_0", library.getVideosByTitle().get(0).getVideoId());
+      assertEquals(1, library.searchVideos("title number 1999").size());
+    }
+  }
+
+  @Test
+  public void testTagSearchMatchesWholeTags(@TempDir Path dir) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    Files.writeString(catalog, "Zoo | zoo_id | #Cat\nCatalog | catalog_id | #catalog\n"
+        + "Alley | alley_id | #cat , #street\n");
+    var library = new VideoLibrary(catalog);
+
+    List<String> ids = new ArrayList<>();
+    library.searchVideosWithTag("#CAT").forEach(video -> ids.add(video.getVideoId()));
+    assertEquals(List.of("alley_id", "zoo_id"), ids);
+
+    library.getVideo("alley_id").flag("dont_like_cats");
+    assertEquals(1, library.searchVideosWithTag("#cat").size());
+    library.getVideo("alley_id").unflag();
+    assertEquals(2, library.searchVideosWithTag("#cat").size());
+    assertTrue(library.searchVideosWithTag("#ca").isEmpty());
+  }
+
+  @Test
+  public void testTitleOrderIsMaintainedAcrossChanges() {
+    var random = new Random(3);
+    VideoCatalog.Builder builder = VideoCatalog.builder(HeapVideoStore.builder(new VideoFlags()));
+    for (int i = 0; i < 1_000; i++) {
+      builder.accept("Title " + random.nextInt(300), "id_" + i, new int[0]);
+    }
+    VideoCatalog catalog = builder.build();
+    catalog.getTitleOrder();
+
+    for (int round = 0; round < 5; round++) {
+      VideoCatalog.Builder next = catalog.toBuilder();
+      for (int i = 0; i < 50; i++) {
+        String id = "id_" + random.nextInt(1_200);
+        if (random.nextBoolean()) {
+          next.accept("Title " + random.nextInt(300), id, new int[0]);
+        } else {
+          next.remove(id);
+        }
+      }
+      catalog = next.build();
+
+      List<Video> expected = new ArrayList<>();
+      for (int ordinal = 0; ordinal < catalog.ordinalCount(); ordinal++) {
+        if (catalog.getVideo(ordinal) != null) {
+          expected.add(catalog.getVideo(ordinal));
+        }
+      }
+      Collections.sort(expected);
+      assertEquals(expected, catalog.getVideosByTitle());
+    }
+  }
 }
@@ -0,0 +1,108 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class VideoPlaylistTest {
+
+  @Test
+  public void testKeepsInsertionOrderAndRejectsDuplicates(@TempDir Path dir) throws IOException {
+    var library = library(dir, 200);
+    var playlist = new VideoPlaylist("big");
+    var expected = new ArrayList<String>();
+    var random = new Random(42);
+
+    // Well past the size where membership moves from scanning to the hash set
+    for (int i = 0; i < 1000; i++) {
+      Video video = library.getVideo("id_" + random.nextInt(200));
+      boolean added = !expected.contains(video.getVideoId());
+      assertEquals(added, playlist.addVideo(video));
+      if (added) {
+        expected.add(video.getVideoId());
+      }
+    }
+    assertEquals(expected, ids(playlist, library));
+
+    for (int i = 0; i < 300; i++) {
+      Video video = library.getVideo("id_" + random.nextInt(200));
+      assertEquals(expected.remove(video.getVideoId()), playlist.removeVideo(video));
+      if (i % 3 == 0) {
+        assertEquals(!expected.contains(video.getVideoId()), playlist.addVideo(video));
+        if (!expected.contains(video.getVideoId())) {
+          expected.add(video.getVideoId());
+        }
+      }
+    }
+    assertEquals(expected, ids(playlist, library));
+    assertEquals(expected.size(), playlist.size());
+  }
+
+  @Test
+  public void testReconcileDropsRemovedVideos(@TempDir Path dir) throws IOException {
+    var library = library(dir, 40);
+    var playlist = new VideoPlaylist("list");
+    for (int i = 39; i >= 0; i--) {
+      assertTrue(playlist.addVideo(library.getVideo("id_" + i)));
+    }
+
+    playlist.reconcile(ordinal -> ordinal % 2 == 0);
+
+    assertEquals(20, playlist.size());
+    assertEquals("id_39", ids(playlist, library).get(0));
+    assertFalse(playlist.addVideo(library.getVideo("id_1")));
+    assertTrue(playlist.addVideo(library.getVideo("id_0")));
+
+    playlist.clear();
+    assertEquals(List.of(), ids(playlist, library));
+    assertTrue(playlist.addVideo(library.getVideo("id_1")));
+  }
+
+  @Test
+  public void testFootprintPerVideo(@TempDir Path dir) throws IOException {
+    var library = library(dir, 5_000);
+    var playlist = new VideoPlaylist("huge");
+    for (int i = 0; i < 5_000; i++) {
+      playlist.addVideo(library.getVideo("id_" + i));
+      int size = playlist.size();
+      // A LinkedHashSet<Integer> takes some 60 bytes per video
+      if (size <= VideoPlaylist.SCAN_LIMIT) {
+        assertTrue(playlist.footprint() <= 6 * size + 32, size + ": " + playlist.footprint());
+      } else {
+        assertTrue(playlist.footprint() <= 12 * size + 64, size + ": " + playlist.footprint());
+      }
+    }
+
+    for (int i = 0; i < 5_000; i += 2) {
+      assertTrue(playlist.removeVideo(library.getVideo("id_" + i)));
+    }
+    for (int i = 0; i < 5_000; i++) {
+      assertEquals(i % 2 == 1, playlist.containsVideo(library.getVideo("id_" + i)));
+    }
+  }
+
+  private static VideoLibrary library(Path dir, int videos) throws IOException {
+    Path catalog = dir.resolve("videos.txt");
+    var lines = new StringBuilder();
+    for (int i = 0; i < videos; i++) {
+      lines.append("Video ").append(i).append(" | id_").append(i).append(" | #tag\n");
+    }
+    Files.writeString(catalog, lines);
+    return new VideoLibrary(catalog);
+  }
+
+  private static List<String> ids(VideoPlaylist playlist, VideoLibrary library) {
+    return playlist.getVideos(library.getCatalog()).stream()
+        .map(Video::getVideoId).collect(Collectors.toList());
+  }
+}